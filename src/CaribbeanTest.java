@@ -2,8 +2,15 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -57,6 +64,24 @@ public class CaribbeanTest {
         assertEquals(4, coord.distance(coord1));
     }
 
+    @Test
+    public void test_cell_tables() {
+        for (int cell = 0; cell < OffsetCoord.NB_CELLS; cell++) {
+            OffsetCoord coord = OffsetCoord.fromCell(cell);
+            assertEquals(cell, coord.toCell());
+            for (int orientation = 0; orientation < 6; orientation++) {
+                OffsetCoord n = coord.neighbor(orientation);
+                assertEquals(n.isInsideMap() ? n.toCell() : -1, OffsetCoord.neighborCell(cell, orientation));
+            }
+            for (int other = 0; other < OffsetCoord.NB_CELLS; other += 7) {
+                OffsetCoord t = OffsetCoord.fromCell(other);
+                assertEquals(coord.toCubic().distance(t.toCubic()), OffsetCoord.cellDistance(cell, other));
+            }
+        }
+        assertEquals(-1, new OffsetCoord(23, 0).toCell());
+        assertEquals(new OffsetCoord(-1, 10), new OffsetCoord(0, 10).neighbor(3));
+    }
+
     @Test
     public void test_ship_faster() {
         Ship ship = new Ship(0, 11, 10, 0, 50, 1, 0);
@@ -160,6 +185,790 @@ public class CaribbeanTest {
         assertEquals(Ship.Action.PORT, moves.get(0));
     }
 
+    @Test
+    public void test_packed_search() {
+        int state = ShipState.pack(OffsetCoord.NB_CELLS - 1, 5, 2, 100);
+        assertEquals(OffsetCoord.NB_CELLS - 1, ShipState.cell(state));
+        assertEquals(5, ShipState.direction(state));
+        assertEquals(2, ShipState.speed(state));
+        assertEquals(100, ShipState.quant(state));
+
+        Ship ship = new Ship(0, 4, 4, 1, 60, 1, 0);
+        addShip(new Ship(1, 8, 6, 0, 50, 0, 3));
+        addMine(new Mine(2, 7, 4));
+        addCannonball(new Cannonball(3, 6, 5, 2, 1));
+        barrels.add(new Rum(4, 12, 8, 15));
+        barrels.add(new Rum(5, 3, 12, 20));
+        PackedSearch search = new PackedSearch();
+        search.setWorld(ship, ships, barrels, mines, cannonballs);
+        for (Rum rum : barrels) {
+            MoveSequence expect = ship.bestPath(rum.getCoord(), ships, barrels, mines, cannonballs);
+            MoveSequence path = search.bestPath(ship, rum.getCoord());
+            assertEquals(expect.getGain(), path.getGain());
+            assertEquals(expect.getMoves(), path.getMoves());
+        }
+    }
+
+    @Test
+    public void test_multi_target() {
+        Ship ship = new Ship(0, 11, 10, 0, 50, 0, 0);
+        List<OffsetCoord> targets = new ArrayList<>();
+        targets.add(new OffsetCoord(16, 10));
+        targets.add(new OffsetCoord(12, 10));
+        targets.add(new OffsetCoord(11, 9));
+        PackedSearch search = new PackedSearch();
+        search.setWorld(ship, ships, barrels, mines, cannonballs);
+        List<MoveSequence> paths = search.bestPaths(ship, targets);
+        assertEquals(3, paths.size());
+        // (11, 10) - FASTER - (12, 10) - FASTER - (14, 10) - WAIT - (16, 10)
+        assertEquals(3, paths.get(0).getMoves().size());
+        assertEquals(-3, paths.get(0).getGain());
+        // the bow already overlaps (12, 10)
+        assertTrue(paths.get(1).getMoves().isEmpty());
+        assertEquals(0, paths.get(1).getGain());
+        assertEquals(1, paths.get(2).getMoves().size());
+        for (int i = 0; i < targets.size(); i++) {
+            MoveSequence expect = search.bestPath(ship, targets.get(i));
+            assertEquals(expect.getMoves().size(), paths.get(i).getMoves().size());
+        }
+    }
+
+    @Test
+    public void test_bounded_search() {
+        Ship ship = new Ship(0, 2, 10, 1, 80, 0, 0);
+        int start = ShipState.of(ship);
+        // FASTER to (3, 10), FASTER to (5, 10), then WAIT to (7, 10) puts the bow on (8, 10)
+        assertEquals(3, PackedSearch.turnsTo(start, new OffsetCoord(8, 10).toCell()));
+        // the stern is next to (0, 10) but the ship has to come about first
+        assertEquals(2, PackedSearch.turnsTo(start, new OffsetCoord(0, 10).toCell()));
+        assertEquals(0, PackedSearch.turnsTo(start, new OffsetCoord(3, 10).toCell()));
+
+        barrels.add(new Rum(1, 5, 9, 10));
+        PackedSearch search = new PackedSearch();
+        search.setWorld(ship, ships, barrels, mines, cannonballs);
+        search.setHorizon(3);
+        MoveSequence path = search.bestPath(ship, new OffsetCoord(8, 10));
+        assertEquals(3, path.getMoves().size());
+        // picking up the barrel on the way
+        assertEquals(7, search.bestPath(ship, new OffsetCoord(5, 9)).getGain());
+        // a target out of reach within the horizon is given up without expanding the start state
+        assertTrue(search.bestPath(ship, new OffsetCoord(20, 10)).getMoves().isEmpty());
+        assertEquals(1, search.getNodeCount());
+        search.setHorizon(0);
+        assertFalse(search.bestPath(ship, new OffsetCoord(20, 10)).getMoves().isEmpty());
+    }
+
+    @Test
+    public void test_reachability_field() {
+        Ship ship = new Ship(0, 11, 10, 0, 50, 0, 0);
+        int start = ShipState.of(ship);
+        PackedSearch search = new PackedSearch();
+        search.setWorld(ship, ships, barrels, mines, cannonballs);
+        search.expand(ship);
+        int target = new OffsetCoord(16, 10).toCell();
+        assertEquals(3, search.getTurns(target));
+        assertEquals(-3, search.getGain(target));
+        assertEquals(3, search.getPath(target).getMoves().size());
+        assertEquals(0, search.getTurns(ship.getCoord().toCell()));
+        // FASTER to (12, 10) at speed 1
+        int key = ShipState.key(ShipState.pack(new OffsetCoord(12, 10).toCell(), 0, 1, 0));
+        assertEquals(1, search.getStateTurns(key));
+        assertEquals(-1, search.getStateGain(key));
+        for (int cell = 0; cell < OffsetCoord.NB_CELLS; cell++) {
+            if (search.getTurns(cell) != -1) {
+                assertTrue(search.getTurns(cell) >= PackedSearch.turnsTo(start, cell));
+                assertTrue(search.getGain(cell) >= -search.getTurns(cell));
+            }
+        }
+        // with 2 rum the ship only lives one more turn
+        search.expand(new Ship(0, 11, 10, 0, 2, 0, 0));
+        assertEquals(-1, search.getTurns(target));
+        assertEquals(Integer.MIN_VALUE, search.getGain(target));
+        assertTrue(search.getPath(target).getMoves().isEmpty());
+    }
+
+    @Test
+    public void test_kinematics() {
+        // the table matches the rules of Ship on an empty sea, for every state and move
+        List<Ship> none = new ArrayList<>();
+        for (int cell = 0; cell < OffsetCoord.NB_CELLS; cell++) {
+            OffsetCoord coord = OffsetCoord.fromCell(cell);
+            for (int direction = 0; direction < 6; direction++) {
+                for (int speed = 0; speed <= Ship.MAX_SHIP_SPEED; speed++) {
+                    for (Ship.Action move : Ship.MOVES) {
+                        // the ship loses one rum per turn
+                        Ship ship = new Ship(0, coord.getCol(), coord.getRow(), 1, 49, speed, direction);
+                        ship.applyAction(move);
+                        ship.move(none, mines, barrels, cannonballs);
+                        ship.rotate(none, mines, barrels, cannonballs, 1);
+                        int next = Kinematics.step(ShipState.pack(cell, direction, speed, 50), move);
+                        assertEquals(ShipState.of(ship), next);
+                    }
+                }
+            }
+        }
+
+        // a ship sailing into a mine is simulated, and it does not sweep what is behind it
+        Ship ship = new Ship(0, 5, 5, 1, 50, 2, 0);
+        int transition = Kinematics.transition(ShipState.of(ship), Ship.Action.EMPTY);
+        CellSet cells = new CellSet();
+        cells.add(new OffsetCoord(8, 5).toCell());
+        assertTrue(Kinematics.sweeps(transition, cells));
+        cells.clear();
+        cells.add(new OffsetCoord(3, 5).toCell());
+        assertFalse(Kinematics.sweeps(transition, cells));
+        mines.add(new Mine(1, 8, 5));
+        PackedSearch search = new PackedSearch();
+        search.setWorld(ship, ships, barrels, mines, cannonballs);
+        int next = search.step(ShipState.of(ship), Ship.Action.EMPTY, 0);
+        assertEquals(new OffsetCoord(7, 5).toCell(), ShipState.cell(next));
+        Ship expect = new Ship(0, 5, 5, 1, 49, 2, 0);
+        expect.move(ships, mines, barrels, cannonballs);
+        expect.rotate(ships, mines, barrels, cannonballs, 1);
+        assertEquals(ShipState.of(expect), next);
+        assertTrue(ShipState.quant(next) < 49);
+    }
+
+    @Test
+    public void test_opening_book() {
+        assertEquals(OpeningBookGenerator.generate(), OpeningBook.TABLE);
+        // the lines hold for every direction and row parity of the ship
+        for (OffsetCoord coord : Arrays.asList(new OffsetCoord(11, 10), new OffsetCoord(12, 9))) {
+            for (int direction = 0; direction < 6; direction++) {
+                int start = ShipState.pack(coord.toCell(), direction, 0, 50);
+                for (int target = 0; target < OffsetCoord.NB_CELLS; target++) {
+                    List<Ship.Action> line = OpeningBook.line(start, target);
+                    if (coord.distance(OffsetCoord.fromCell(target)) > OpeningBook.RADIUS) {
+                        assertNull(line);
+                        continue;
+                    }
+                    int state = start;
+                    for (Ship.Action move : line) {
+                        state = Kinematics.step(state, move);
+                    }
+                    assertTrue(PackedSearch.overlap(state, target));
+                }
+            }
+        }
+        assertNull(OpeningBook.line(ShipState.pack(new OffsetCoord(11, 10).toCell(), 0, 1, 50), new OffsetCoord(14, 10).toCell()));
+
+        long[] searches = new long[2];
+        for (int i = 0; i < 2; i++) {
+            Player p = new Player();
+            p.setPlanner(Player.Planner.PACKED);
+            p.setOpeningBook(true);
+            p.addOurShip(new Ship(0, 5, 5, 1, 50, 0, 0));
+            p.addEnemyShip(new Ship(1, 18, 15, 0, 100, 0, 3));
+            p.addRum(new Rum(2, 9, 5, 10));
+            if (i == 1) {
+                // the line of the barrel goes over the mine
+                p.addMine(new Mine(3, 8, 5));
+            }
+            List<String> commands = p.getCommands();
+            searches[i] = p.getStats().getSearches();
+            if (i == 0) {
+                Ship.Action first = OpeningBook.line(ShipState.pack(new OffsetCoord(5, 5).toCell(), 0, 0, 50), new OffsetCoord(9, 5).toCell()).get(0);
+                assertEquals(first.name(), commands.get(0));
+            }
+        }
+        assertEquals(0, searches[0]);
+        assertTrue(searches[1] > 0);
+    }
+
+    @Test
+    public void test_deadline() {
+        Ship ship = new Ship(0, 2, 2, 1, 80, 0, 0);
+        PackedSearch search = new PackedSearch();
+        search.setWorld(ship, ships, barrels, mines, cannonballs);
+        search.setDeadline(System.nanoTime());
+        MoveSequence path = search.bestPath(ship, new OffsetCoord(20, 18));
+        assertTrue(search.isInterrupted());
+        assertNotNull(path.getMoves());
+        search.setDeadline(0);
+        search.bestPath(ship, new OffsetCoord(20, 18));
+        assertFalse(search.isInterrupted());
+
+        // Ship.bestPath stops like PackedSearch.bestPath, at the start state here
+        MoveSequence stopped = ship.bestPath(new OffsetCoord(20, 18), ships, barrels, mines, cannonballs, null, System.nanoTime());
+        assertEquals(path.getGain(), stopped.getGain());
+        assertEquals(path.getMoves(), stopped.getMoves());
+        MoveSequence full = ship.bestPath(new OffsetCoord(20, 18), ships, barrels, mines, cannonballs, null, 0);
+        assertEquals(search.bestPath(ship, new OffsetCoord(20, 18)).getMoves(), full.getMoves());
+
+        Player p = new Player();
+        p.setTurnBudget(1);
+        p.addOurShip(ship);
+        p.addOurShip(new Ship(1, 12, 2, 1, 80, 0, 0));
+        p.addRum(new Rum(2, 20, 18, 10));
+        assertEquals(2, p.getCommands().size());
+        assertTrue(p.getLastTurnTime() > 0);
+        assertTrue(p.getLastBudgetUsage() > 1);
+    }
+
+    @Test
+    public void test_reuse_plans() {
+        Player p = new Player();
+        p.setReusePlans(true);
+        p.addOurShip(new Ship(0, 11, 10, 1, 50, 0, 0));
+        p.addRum(new Rum(1, 16, 10, 30));
+        assertEquals("FASTER", p.getCommands().get(0));
+        assertEquals(0, p.getReusedPlans());
+
+        // the ship moved as predicted, the plan is resumed without searching
+        p.clearEntities();
+        p.addOurShip(new Ship(0, 12, 10, 1, 49, 1, 0));
+        p.addRum(new Rum(1, 16, 10, 30));
+        assertEquals("FASTER", p.getCommands().get(0));
+        assertEquals(1, p.getReusedPlans());
+
+        // the ship was stopped, a new plan is searched
+        p.clearEntities();
+        p.addOurShip(new Ship(0, 12, 10, 1, 48, 0, 0));
+        p.addRum(new Rum(1, 16, 10, 30));
+        p.getCommands();
+        assertEquals(1, p.getReusedPlans());
+    }
+
+    @Test
+    public void test_parallel_planning() {
+        for (Player.Planner planner : Player.Planner.values()) {
+            Player sequential = new Player();
+            Player parallel = new Player();
+            sequential.setPlanner(planner);
+            parallel.setPlanner(planner);
+            parallel.setParallelism(3);
+            for (Player p : new Player[]{sequential, parallel}) {
+                p.addOurShip(new Ship(0, 3, 3, 1, 60, 1, 0));
+                p.addOurShip(new Ship(1, 12, 15, 1, 40, 0, 2));
+                p.addOurShip(new Ship(2, 19, 5, 1, 80, 2, 4));
+                p.addEnemyShip(new Ship(3, 10, 10, 0, 50, 1, 3));
+                p.addRum(new Rum(4, 7, 6, 12));
+                p.addRum(new Rum(5, 15, 12, 18));
+                p.addMine(new Mine(6, 9, 7));
+                p.addCannonball(new Cannonball(7, 4, 3, 2, 3));
+            }
+            assertEquals(sequential.getCommands(), parallel.getCommands());
+            parallel.setParallelism(1);
+        }
+    }
+
+    @Test
+    public void test_board() {
+        Ship ship = new Ship(0, 5, 5, 1, 50, 0, 0);
+        addShip(ship);
+        addShip(new Ship(1, 10, 5, 0, 50, 0, 0));
+        barrels.add(new Rum(2, 7, 5, 10));
+        barrels.add(new Rum(3, 7, 5, 5));
+        addMine(new Mine(4, 3, 8));
+        Board board = new Board(ships, barrels, mines);
+
+        CellSet cells = board.getShipCells();
+        assertTrue(cells.contains(new OffsetCoord(4, 5).toCell()));
+        assertTrue(cells.contains(new OffsetCoord(11, 5).toCell()));
+        assertFalse(cells.contains(new OffsetCoord(12, 5).toCell()));
+        assertFalse(cells.contains(-1));
+        // a ship does not collide with itself
+        assertFalse(board.hasShip(new OffsetCoord(5, 5).toCell(), 0));
+        assertTrue(board.hasShip(new OffsetCoord(9, 5).toCell(), 0));
+        assertTrue(board.collides(new OffsetCoord(8, 5).toCell(), 0, 0));
+        assertFalse(board.collides(new OffsetCoord(7, 5).toCell(), 0, 0));
+
+        assertEquals(15, board.getBarrelQuant(new OffsetCoord(7, 5).toCell()));
+        assertEquals(0, board.getBarrelQuant(-1));
+        assertEquals(1, board.getMineCount(new OffsetCoord(3, 8).toCell()));
+        assertTrue(board.hasItem(new OffsetCoord(3, 8).toCell()));
+        assertFalse(board.hasItem(new OffsetCoord(3, 9).toCell()));
+
+        // moving with the board gives the same result as moving with the entity lists
+        Ship expect = new Ship(ship);
+        expect.setSpeed(2);
+        expect.move(ships, mines, barrels, cannonballs);
+        expect.rotate(ships, mines, barrels, cannonballs);
+        ship.setSpeed(2);
+        ship.move(board);
+        ship.rotate(board, new ImpactTable(cannonballs), 0);
+        assertEquals(expect, ship);
+        // barrels are not removed by the simulation, they heal at each of the two steps and after the rotation
+        assertEquals(95, ship.getQuant());
+    }
+
+    @Test
+    public void test_state_table() {
+        StateTable table = new StateTable();
+        table.reset();
+        table.put(42, 7);
+        assertTrue(table.contains(42));
+        assertEquals(7, table.get(42));
+        table.reset();
+        assertFalse(table.contains(42));
+        assertEquals(Integer.MIN_VALUE, table.get(42));
+    }
+
+    @Test
+    public void test_impact_table() {
+        addCannonball(new Cannonball(1, 6, 5, 2, 1));
+        addCannonball(new Cannonball(2, 6, 5, 2, 1));
+        addCannonball(new Cannonball(3, 7, 5, 3, 1));
+        ImpactTable impacts = new ImpactTable(cannonballs);
+        int cell = new OffsetCoord(6, 5).toCell();
+        int next = new OffsetCoord(7, 5).toCell();
+
+        // a ball observed with t remaining turns lands after t - 1 turns
+        assertTrue(impacts.isHit(1, cell));
+        assertFalse(impacts.isHit(2, cell));
+        assertTrue(impacts.isHit(2, next));
+        assertFalse(impacts.isHit(ImpactTable.MAX_TURNS, cell));
+        // two balls on the center, then one ball on the bow
+        assertEquals(2 * Cannonball.HIGH_DAMAGE, impacts.damage(1, next, cell, -1));
+        assertEquals(Cannonball.LOW_DAMAGE, impacts.damage(2, next, cell, -1));
+        assertEquals(0, impacts.damage(0, next, cell, -1));
+
+        // the table gives the same damage as the cannonball list
+        Ship ship = new Ship(0, 6, 5, 0, 100, 0, 0);
+        Ship expect = new Ship(ship);
+        expect.rotate(ships, mines, barrels, cannonballs, 1);
+        ship.rotate(new Board(ships, barrels, mines), impacts, 1);
+        assertEquals(expect, ship);
+        assertEquals(0, ship.getQuant());
+    }
+
+    @Test
+    public void test_motion_predictor() {
+        List<Ship> all = new ArrayList<>();
+        all.add(new Ship(0, 5, 10, 1, 50, 1, 0));
+        all.add(new Ship(1, 21, 4, 0, 50, 2, 0));
+        MotionPredictor motion = new MotionPredictor(all);
+        int id = 9;
+        assertTrue(motion.isOccupied(0, new OffsetCoord(6, 10).toCell(), id));
+        assertFalse(motion.isOccupied(0, new OffsetCoord(7, 10).toCell(), id));
+        assertTrue(motion.isOccupied(1, new OffsetCoord(7, 10).toCell(), id));
+        assertFalse(motion.isOccupied(1, new OffsetCoord(4, 10).toCell(), id));
+        assertTrue(motion.isOccupied(2, new OffsetCoord(8, 10).toCell(), id));
+        // ships are left at their last predicted cells, and do not block themselves
+        assertTrue(motion.isOccupied(MotionPredictor.MAX_TURNS + 3, new OffsetCoord(5 + MotionPredictor.MAX_TURNS, 10).toCell(), id));
+        assertFalse(motion.isOccupied(1, new OffsetCoord(7, 10).toCell(), 0));
+        // the ship stops at the border of the map
+        assertTrue(motion.isOccupied(2, new OffsetCoord(22, 4).toCell(), id));
+        assertFalse(motion.isOccupied(2, -1, id));
+
+        // the path goes through the cells an enemy ship leaves, instead of around them
+        Ship ship = new Ship(0, 2, 10, 1, 50, 2, 0);
+        List<Ship> enemies = new ArrayList<>();
+        enemies.add(new Ship(1, 6, 10, 0, 50, 2, 1));
+        barrels.add(new Rum(2, 10, 10, 10));
+        Board board = new Board(enemies, barrels, mines);
+        ImpactTable impacts = new ImpactTable(cannonballs);
+        PackedSearch search = new PackedSearch();
+        search.setWorld(ship, board, impacts);
+        MoveSequence around = search.bestPath(ship, new OffsetCoord(10, 10));
+        all = new ArrayList<>(enemies);
+        all.add(ship);
+        search.setWorld(ship, board, impacts, new MotionPredictor(all));
+        MoveSequence through = search.bestPath(ship, new OffsetCoord(10, 10));
+        assertTrue(through.getMoves().size() < around.getMoves().size());
+    }
+
+    @Test
+    public void test_input_reader() {
+        String turn = "2\n5\n0 SHIP 3 4 1 2 80 1\n1 SHIP 10 12 4 0 65 0\n7 BARREL 6 6 14 0 0 0\n"
+                + "8 MINE 9 9 0 0 0 0\n9 CANNONBALL 11 13 1 3 0 0\n";
+        for (boolean readAhead : new boolean[]{false, true}) {
+            InputReader in = new InputReader(new ByteArrayInputStream((turn + turn).getBytes()), readAhead);
+            Player p = new Player();
+            for (int t = 0; t < 2; t++) {
+                p.readTurn(in);
+                assertEquals(1, p.getOurShips().size());
+                assertEquals(new Ship(0, 3, 4, 1, 80, 2, 1), p.getOurShips().get(0));
+                assertEquals(65, p.getEnemyShips().get(0).getQuant());
+                assertEquals(4, p.getEnemyShips().get(0).getDirection());
+                assertEquals(14, p.getRums().get(0).getQuant());
+                assertEquals(new OffsetCoord(9, 9), p.getMines().get(0).getCoord());
+                assertEquals(3, p.getCannonballs().get(0).getInitialRemainingTurns());
+            }
+            try {
+                in.nextInt();
+                fail("the input is read");
+            } catch (NoSuchElementException e) {
+                // end of the input, like Scanner
+            }
+        }
+
+        byte[][] words = {"MINE".getBytes(), "MINES".getBytes(), "M".getBytes()};
+        InputReader in = new InputReader(new ByteArrayInputStream(" -12 MINES\tM MIN 7".getBytes()), false);
+        assertEquals(-12, in.nextInt());
+        assertEquals(1, in.nextWord(words));
+        assertEquals(2, in.nextWord(words));
+        assertEquals(-1, in.nextWord(words));
+        assertEquals(7, in.nextInt());
+    }
+
+    @Test
+    public void test_trace_writer() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TraceWriter trace = new TraceWriter(out);
+        Player p = new Player();
+        p.setTrace(trace);
+        p.addOurShip(new Ship(0, 4, 10, 1, 100, Ship.MAX_SHIP_SPEED, 0));
+        p.addEnemyShip(new Ship(1, 10, 13, 0, 100, 0, 0));
+        p.addRum(new Rum(2, 8, 10, 10));
+        p.addCannonball(new Cannonball(3, 9, 9, 7, 2));
+        String command = p.getCommands().get(0);
+        trace.close();
+        List<String> lines = Arrays.asList(out.toString().split("\n"));
+        assertTrue(lines.get(0).startsWith("config PACKED "));
+        assertEquals(Arrays.asList("turn 1", "in 1", "in 4", "in 0 SHIP 4 10 0 2 100 1", "in 1 SHIP 10 13 0 0 100 0",
+                "in 2 BARREL 8 10 10 0 0 0", "in 3 CANNONBALL 9 9 2 7 0 0", "cooldown 0 0 0", "out " + command),
+                lines.subList(1, 10));
+        assertTrue(lines.get(10).startsWith("time "));
+        assertEquals(0, trace.getDropped());
+
+        // records are dropped when the writer is behind, never partly written
+        TraceWriter full = new TraceWriter(new ByteArrayOutputStream());
+        full.close();
+        for (int i = 0; i < 10000; i++) {
+            full.entity(i, 0, 0, 0, 0, 0, 0, 0);
+        }
+        assertEquals(10000 - (1 << 16) / 10, full.getDropped());
+
+        // once a record of a turn is dropped, the rest of the turn is dropped, even the records which would fit
+        TraceWriter partial = new TraceWriter(new ByteArrayOutputStream());
+        partial.close();
+        partial.input(1, 6553);
+        partial.cooldown(0, 0, 0);
+        for (int i = 0; i < 6552; i++) {
+            partial.entity(i, 0, 0, 0, 0, 0, 0, 0);
+        }
+        // 7 ints are left, the last entity needs 10 and the end of the turn 3
+        partial.entity(6552, 0, 0, 0, 0, 0, 0, 0);
+        partial.endTurn(1000);
+        assertEquals(2, partial.getDropped());
+        // the next turn is traced again
+        partial.input(1, 0);
+        partial.evaluations(0);
+        assertEquals(2, partial.getDropped());
+    }
+
+    @Test
+    public void test_trace_replay() throws IOException {
+        // the deadline of the traced bot stops its planner after a varying number of rollouts
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TraceWriter trace = new TraceWriter(out);
+        MatchRunner runner = new MatchRunner(() -> {
+            Player bot = MatchRunner.createBot(Player.Planner.EVOLUTION, 1000000L);
+            bot.setTrace(trace);
+            return bot;
+        }, Player::new);
+        MatchRunner.MatchResult game = runner.play(3);
+        trace.close();
+        assertEquals(0, trace.getDropped());
+
+        TraceReplay replay = TraceReplay.read(new StringReader("arena log\n" + out));
+        assertEquals(game.getRounds(), replay.getTurns().size());
+        for (TraceReplay.TurnResult result : replay.replay()) {
+            assertEquals(result.getTurn().getCommands(), result.getCommands());
+        }
+
+        // the planner switches which change the commands are traced and restored
+        ByteArrayOutputStream switched = new ByteArrayOutputStream();
+        TraceWriter switchedTrace = new TraceWriter(switched);
+        runner = new MatchRunner(() -> {
+            Player bot = MatchRunner.createBot(Player.Planner.PACKED, 0);
+            bot.setSearchHorizon(3);
+            bot.setAssignBarrels(true);
+            bot.setOpeningBook(true);
+            bot.setTrace(switchedTrace);
+            return bot;
+        }, Player::new);
+        runner.play(3);
+        switchedTrace.close();
+        for (TraceReplay.TurnResult result : TraceReplay.read(new StringReader(switched.toString())).replay()) {
+            assertEquals(result.getTurn().getCommands(), result.getCommands());
+        }
+    }
+
+    @Test
+    public void test_planner_stats() {
+        long[] expanded = new long[2];
+        long[] pruned = new long[2];
+        Player.Planner[] planners = {Player.Planner.PACKED, Player.Planner.BEST_PATH};
+        for (int i = 0; i < planners.length; i++) {
+            Player p = new Player();
+            p.setPlanner(planners[i]);
+            p.addOurShip(new Ship(0, 4, 10, 1, 100, 1, 0));
+            p.addEnemyShip(new Ship(1, 10, 13, 0, 100, 0, 0));
+            p.addRum(new Rum(2, 12, 10, 10));
+            p.addRum(new Rum(3, 5, 16, 10));
+            p.addMine(new Mine(4, 8, 10));
+            p.getCommands();
+            PlannerStats stats = p.getStats();
+            assertEquals(1, stats.getTurns());
+            assertEquals(2, stats.getSearches());
+            assertTrue(stats.getPeakFrontier() > 0);
+            expanded[i] = stats.getExpanded();
+            pruned[i] = stats.getPruned();
+        }
+        // both searches generate the same nodes
+        assertTrue(expanded[0] > 0 && pruned[0] > 0);
+        assertEquals(expanded[0], expanded[1]);
+        assertEquals(pruned[0], pruned[1]);
+
+        PlannerStats.Histogram histogram = new PlannerStats.Histogram("values");
+        for (long value : new long[]{0, 1, 5, 6, 7, 100}) {
+            histogram.record(value);
+        }
+        assertEquals(6, histogram.getCount());
+        assertEquals(100, histogram.getMax());
+        assertEquals(7, histogram.getPercentile(0.5));
+        assertEquals(127, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void test_assign_barrels() {
+        assertArrayEquals(new int[]{1, 0}, Assignment.maximize(new int[][]{{10, 9}, {10, 1}}));
+        // more ships than barrels, the ship with the lowest values gets none
+        assertArrayEquals(new int[]{-1, 0, 1}, Assignment.maximize(new int[][]{{1, 1}, {5, 2}, {2, 5}}));
+        assertArrayEquals(new int[]{2}, Assignment.maximize(new int[][]{{3, 1, 4}}));
+
+        long[] searches = new long[2];
+        for (int i = 0; i < 2; i++) {
+            Player p = new Player();
+            p.setPlanner(Player.Planner.PACKED);
+            p.setAssignBarrels(i == 1);
+            p.addOurShip(new Ship(0, 4, 10, 1, 50, 1, 0));
+            p.addOurShip(new Ship(1, 4, 4, 1, 50, 1, 0));
+            p.addEnemyShip(new Ship(2, 18, 13, 0, 100, 0, 3));
+            p.addRum(new Rum(3, 9, 10, 10));
+            p.addRum(new Rum(4, 9, 4, 10));
+            p.addRum(new Rum(5, 12, 16, 10));
+            List<String> commands = p.getCommands();
+            assertEquals(2, commands.size());
+            searches[i] = p.getStats().getSearches();
+        }
+        // a path search per ship and barrel, against a field and a path search per ship
+        assertEquals(6, searches[0]);
+        assertEquals(4, searches[1]);
+    }
+
+    @Test
+    public void test_warm_up() {
+        List<List<String>> commands = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            Player p = new Player();
+            p.setPlanner(Player.Planner.PACKED);
+            p.addOurShip(new Ship(0, 4, 10, 1, 100, 1, 0));
+            p.addEnemyShip(new Ship(1, 10, 13, 0, 100, 0, 0));
+            p.addRum(new Rum(2, 12, 10, 10));
+            p.addMine(new Mine(3, 8, 10));
+            if (i == 1) {
+                int turns = p.warmUp(System.nanoTime() + 50000000L);
+                assertTrue(turns > 0);
+                assertEquals(turns, p.getStats().getWarmUpTurns());
+                assertEquals(0, p.getStats().getTurns());
+            }
+            commands.add(p.getCommands());
+        }
+        // the warm-up does not change the plans of the bot
+        assertEquals(commands.get(0), commands.get(1));
+    }
+
+    @Test
+    public void test_local_match() {
+        MatchRunner runner = new MatchRunner(() -> MatchRunner.createBot(Player.Planner.EVOLUTION, 1000000L),
+                () -> MatchRunner.createBot(Player.Planner.EVOLUTION, 1000000L));
+        MatchRunner.MatchResult result = runner.play(1);
+        assertFalse(result.isInvalid(0));
+        assertFalse(result.isInvalid(1));
+        assertTrue(result.getRounds() > 0 && result.getRounds() <= LocalReferee.MAX_ROUNDS);
+        assertEquals(2 * result.getRounds(), result.getTurnTimes().length);
+
+        // the map only depends on the seed
+        LocalReferee referee = new LocalReferee(7);
+        LocalReferee same = new LocalReferee(7);
+        assertEquals(referee.getBarrels().size(), same.getBarrels().size());
+        assertEquals(referee.getShipsAlive(0).get(0).getPosition(), same.getShipsAlive(0).get(0).getPosition());
+    }
+
+    private static void assertSameState(LocalReferee referee, GameState state) {
+        GameState expect = referee.toGameState();
+        int ship = 0;
+        for (int i = 0; i < expect.getShipCount(); i++, ship++) {
+            while (!state.isAlive(ship)) {
+                ship++;
+            }
+            assertEquals(expect.getShipId(i), state.getShipId(ship));
+            assertEquals(expect.getShipCell(i), state.getShipCell(ship));
+            assertEquals(expect.getShipDirection(i), state.getShipDirection(ship));
+            assertEquals(expect.getShipSpeed(i), state.getShipSpeed(ship));
+            assertEquals(expect.getShipHealth(i), state.getShipHealth(ship));
+            assertEquals(expect.getMineCooldown(i), state.getMineCooldown(ship));
+            assertEquals(expect.getCannonCooldown(i), state.getCannonCooldown(ship));
+        }
+        for (; ship < state.getShipCount(); ship++) {
+            assertFalse(state.isAlive(ship));
+        }
+        assertEquals(expect.getBarrelCount(), state.getBarrelCount());
+        for (int i = 0; i < expect.getBarrelCount(); i++) {
+            assertEquals(expect.getBarrelCell(i), state.getBarrelCell(i));
+            assertEquals(expect.getBarrelHealth(i), state.getBarrelHealth(i));
+        }
+        int[] mines = new int[state.getMineCount()];
+        int[] expectMines = new int[expect.getMineCount()];
+        for (int i = 0; i < mines.length; i++) {
+            mines[i] = state.getMineCell(i);
+        }
+        for (int i = 0; i < expectMines.length; i++) {
+            expectMines[i] = expect.getMineCell(i);
+        }
+        Arrays.sort(mines);
+        Arrays.sort(expectMines);
+        assertArrayEquals(expectMines, mines);
+        assertEquals(expect.getCannonballCount(), state.getCannonballCount());
+        for (int i = 0; i < expect.getCannonballCount(); i++) {
+            assertEquals(expect.getCannonballCell(i), state.getCannonballCell(i));
+            assertEquals(expect.getCannonballTurns(i), state.getCannonballTurns(i));
+        }
+    }
+
+    @Test
+    public void test_game_state() {
+        String[] commands = {"WAIT", "FASTER", "FASTER", "SLOWER", "PORT", "STARBOARD", "MINE", "FIRE"};
+        for (int seed = 0; seed < 30; seed++) {
+            Random random = new Random(seed);
+            LocalReferee referee = new LocalReferee(seed);
+            GameState state = referee.toGameState();
+            boolean over = false;
+            while (!over) {
+                referee.prepare();
+                int ship = 0;
+                for (int owner = 0; owner < 2; owner++) {
+                    List<String> outputs = new ArrayList<>();
+                    for (LocalReferee.Ship s : referee.getShipsAlive(owner)) {
+                        while (!state.isAlive(ship)) {
+                            ship++;
+                        }
+                        String command = commands[random.nextInt(commands.length)];
+                        if (command.equals("FIRE")) {
+                            // aim around the ship, sometimes outside the map or out of range
+                            int col = s.getPosition().x + random.nextInt(17) - 8;
+                            int row = s.getPosition().y + random.nextInt(17) - 8;
+                            if (col >= 0 && row >= 0) {
+                                command = "FIRE " + col + " " + row;
+                                state.setFire(ship, col, row);
+                            } else {
+                                command = "WAIT";
+                            }
+                        } else if (!command.equals("WAIT")) {
+                            state.setAction(ship, Ship.Action.valueOf(command));
+                        }
+                        outputs.add(command);
+                        ship++;
+                    }
+                    assertTrue(referee.handlePlayerOutput(owner, outputs));
+                }
+                over = referee.updateGame();
+                boolean stateOver = state.step();
+                assertSameState(referee, state);
+                if (referee.getRound() < LocalReferee.MAX_ROUNDS) {
+                    assertEquals(over, stateOver);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test_mine_cooldown() {
+        // the ships wait with MINE, the mine is only dropped when the cell behind the stern is in the map
+        for (int col : new int[]{1, 5}) {
+            Player p = new Player();
+            p.setPlanner(Player.Planner.PACKED);
+            p.addOurShip(new Ship(0, col, 10, 1, 50, 1, 0));
+            p.addEnemyShip(new Ship(1, 20, 2, 0, 100, 0, 3));
+            p.addRum(new Rum(2, col + 2, 9, 10));
+            assertEquals(Arrays.asList("MINE"), p.getCommands());
+            assertEquals(col == 1 ? 0 : GameState.COOLDOWN_MINE, p.toGameState().getMineCooldown(0));
+        }
+    }
+
+    @Test
+    public void test_evolution() {
+        GameState state = new GameState();
+        state.addShip(0, 0, 5, 5, 0, 0, 50, 0, 0);
+        state.addShip(1, 1, 15, 15, 3, 0, 50, 0, 0);
+        state.addBarrel(8, 5, 20);
+        EvolutionPlanner planner = new EvolutionPlanner();
+        int[] ours = {0};
+        for (int turn = 0; turn < EvolutionPlanner.DEFAULT_HORIZON && state.getBarrelCount() > 0; turn++) {
+            Ship.Action[] actions = planner.plan(state, ours, 0, 0);
+            assertEquals(1, actions.length);
+            state.setAction(0, actions[0]);
+            state.step();
+        }
+        assertEquals(0, state.getBarrelCount());
+
+        Player p = new Player();
+        p.setPlanner(Player.Planner.EVOLUTION);
+        p.addOurShip(new Ship(1, 5, 5, 1, 50, 0, 0));
+        p.addEnemyShip(new Ship(0, 15, 15, 0, 50, 0, 3));
+        p.addRum(new Rum(2, 8, 5, 20));
+        // odd ids belong to player 1, whose ships come second in the state
+        GameState game = p.toGameState();
+        assertEquals(0, game.getShipId(0));
+        assertEquals(1, game.getShipOwner(1));
+        List<String> commands = p.getCommands();
+        assertEquals(1, commands.size());
+        assertNotEquals("EMPTY", commands.get(0));
+    }
+
+    @Test
+    public void test_gunnery() {
+        int bow = GameState.cell(5, 10);
+        // the ball explodes after the moves of the turn of the shot and of its 1 + round(distance / 3) turns of flight
+        assertEquals(2, Gunnery.flight(bow, bow));
+        assertEquals(3, Gunnery.flight(bow, GameState.cell(7, 10)));
+        assertEquals(5, Gunnery.flight(bow, GameState.cell(15, 10)));
+        assertEquals(0, Gunnery.flight(bow, GameState.cell(16, 10)));
+        assertEquals(0, Gunnery.flight(GameState.cell(-1, 10), GameState.cell(-1, 11)));
+
+        // a still enemy is hit on its center, one coming closer where it will be when the ball lands
+        for (int speed = 0; speed <= 1; speed++) {
+            GameState state = new GameState();
+            state.addShip(0, 0, 4, 10, 0, 0, 100, 0, 0);
+            state.addShip(1, 1, 10 + 4 * speed, 12, 3, speed, 100, 0, 0);
+            Gunnery gunnery = new Gunnery();
+            gunnery.predict(state);
+            int target = gunnery.aim(state, 0);
+            assertNotEquals(-1, target);
+            assertTrue(gunnery.getExpectedDamage() >= Gunnery.MIN_EXPECTED_DAMAGE);
+            state.setFire(0, GameState.col(target), GameState.row(target));
+            for (int turn = 0; turn < Gunnery.MAX_FLIGHT; turn++) {
+                state.step();
+            }
+            assertEquals(100 - Gunnery.MAX_FLIGHT - Cannonball.HIGH_DAMAGE, state.getShipHealth(1));
+            assertEquals(100 - Gunnery.MAX_FLIGHT, state.getShipHealth(0));
+        }
+
+        // no shot while the cannon cools down, nor at enemies out of range
+        GameState state = new GameState();
+        state.addShip(0, 0, 4, 10, 0, 0, 100, 0, GameState.COOLDOWN_CANNON);
+        state.addShip(1, 1, 10, 12, 0, 0, 100, 0, 0);
+        state.addShip(2, 0, 0, 0, 0, 0, 100, 0, 0);
+        state.addShip(3, 1, 20, 18, 0, 0, 100, 0, 0);
+        Gunnery gunnery = new Gunnery();
+        gunnery.predict(state);
+        assertEquals(-1, gunnery.aim(state, 0));
+        assertEquals(-1, gunnery.aim(state, 2));
+        assertEquals(0, gunnery.getExpectedDamage(), 0);
+
+        // the path planners fire instead of waiting, and the cannon is then cooling down
+        Player p = new Player();
+        p.addOurShip(new Ship(0, 4, 10, 1, 100, Ship.MAX_SHIP_SPEED, 0));
+        p.addEnemyShip(new Ship(1, 10, 13, 0, 100, 0, 0));
+        p.addRum(new Rum(2, 8, 10, 10));
+        List<String> commands = p.getCommands();
+        assertEquals("FIRE 10 13", commands.get(0));
+        assertEquals(GameState.COOLDOWN_CANNON, p.toGameState().getCannonCooldown(0));
+    }
+
     @Test
     public void test_best_path() {
         //TODO: make a test case for bestPath
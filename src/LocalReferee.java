@@ -0,0 +1,994 @@
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In process port of the game engine of resources/Referee.txt (league 3), for local matches.
+ * The game logic is kept as in the referee: map generation from the seed, actions, moves, rotations, collisions and
+ * explosions. The MultiReferee plumbing, the viewer output and the damage list only used by the viewer are left out,
+ * and entity ids are counted per game instead of globally so that games can run concurrently.
+ */
+class LocalReferee {
+
+    public static final int MAP_WIDTH = 23;
+    public static final int MAP_HEIGHT = 21;
+    public static final int MAX_ROUNDS = 200;
+    private static final int COOLDOWN_CANNON = 2;
+    private static final int COOLDOWN_MINE = 5;
+    private static final int INITIAL_SHIP_HEALTH = 100;
+    private static final int MAX_SHIP_HEALTH = 100;
+    private static final int MAX_SHIP_SPEED = 2;
+    private static final int MIN_SHIPS = 1;
+    private static final int MAX_SHIPS = 3;
+    private static final int MIN_MINES = 5;
+    private static final int MAX_MINES = 10;
+    private static final int MIN_RUM_BARRELS = 10;
+    private static final int MAX_RUM_BARRELS = 26;
+    private static final int MIN_RUM_BARREL_VALUE = 10;
+    private static final int MAX_RUM_BARREL_VALUE = 20;
+    private static final int REWARD_RUM_BARREL_VALUE = 30;
+    public static final int MINE_VISIBILITY_RANGE = 5;
+    private static final int FIRE_DISTANCE_MAX = 10;
+    private static final int LOW_DAMAGE = 25;
+    private static final int HIGH_DAMAGE = 50;
+    private static final int MINE_DAMAGE = 25;
+    private static final int NEAR_MINE_DAMAGE = 10;
+
+    private static final Pattern MOVE_PATTERN = Pattern.compile("MOVE (?<x>[0-9]{1,8})\\s+(?<y>[0-9]{1,8})(?:\\s+(?<message>.+))?", Pattern.CASE_INSENSITIVE);
+    private static final Pattern SLOWER_PATTERN = Pattern.compile("SLOWER(?:\\s+(?<message>.+))?", Pattern.CASE_INSENSITIVE);
+    private static final Pattern FASTER_PATTERN = Pattern.compile("FASTER(?:\\s+(?<message>.+))?", Pattern.CASE_INSENSITIVE);
+    private static final Pattern WAIT_PATTERN = Pattern.compile("WAIT(?:\\s+(?<message>.+))?", Pattern.CASE_INSENSITIVE);
+    private static final Pattern PORT_PATTERN = Pattern.compile("PORT(?:\\s+(?<message>.+))?", Pattern.CASE_INSENSITIVE);
+    private static final Pattern STARBOARD_PATTERN = Pattern.compile("STARBOARD(?:\\s+(?<message>.+))?", Pattern.CASE_INSENSITIVE);
+    private static final Pattern FIRE_PATTERN = Pattern.compile("FIRE (?<x>[0-9]{1,8})\\s+(?<y>[0-9]{1,8})(?:\\s+(?<message>.+))?", Pattern.CASE_INSENSITIVE);
+    private static final Pattern MINE_PATTERN = Pattern.compile("MINE(?:\\s+(?<message>.+))?", Pattern.CASE_INSENSITIVE);
+
+    public static int clamp(int val, int min, int max) {
+        return Math.max(min, Math.min(max, val));
+    }
+
+    public static class Coord {
+        private final static int[][] DIRECTIONS_EVEN = new int[][]{{1, 0}, {0, -1}, {-1, -1}, {-1, 0}, {-1, 1}, {0, 1}};
+        private final static int[][] DIRECTIONS_ODD = new int[][]{{1, 0}, {1, -1}, {0, -1}, {-1, 0}, {0, 1}, {1, 1}};
+        final int x;
+        final int y;
+
+        public Coord(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        public double angle(Coord targetPosition) {
+            double dy = (targetPosition.y - this.y) * Math.sqrt(3) / 2;
+            double dx = targetPosition.x - this.x + ((this.y - targetPosition.y) & 1) * 0.5;
+            double angle = -Math.atan2(dy, dx) * 3 / Math.PI;
+            if (angle < 0) {
+                angle += 6;
+            } else if (angle >= 6) {
+                angle -= 6;
+            }
+            return angle;
+        }
+
+        CubeCoordinate toCubeCoordinate() {
+            int xp = x - (y - (y & 1)) / 2;
+            int zp = y;
+            int yp = -(xp + zp);
+            return new CubeCoordinate(xp, yp, zp);
+        }
+
+        Coord neighbor(int orientation) {
+            int newY, newX;
+            if (this.y % 2 == 1) {
+                newY = this.y + DIRECTIONS_ODD[orientation][1];
+                newX = this.x + DIRECTIONS_ODD[orientation][0];
+            } else {
+                newY = this.y + DIRECTIONS_EVEN[orientation][1];
+                newX = this.x + DIRECTIONS_EVEN[orientation][0];
+            }
+            return new Coord(newX, newY);
+        }
+
+        boolean isInsideMap() {
+            return x >= 0 && x < MAP_WIDTH && y >= 0 && y < MAP_HEIGHT;
+        }
+
+        int distanceTo(Coord dst) {
+            return this.toCubeCoordinate().distanceTo(dst.toCubeCoordinate());
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            Coord other = (Coord) obj;
+            return y == other.y && x == other.x;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * x + y;
+        }
+
+        @Override
+        public String toString() {
+            return x + " " + y;
+        }
+    }
+
+    public static class CubeCoordinate {
+        int x, y, z;
+
+        public CubeCoordinate(int x, int y, int z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        int distanceTo(CubeCoordinate dst) {
+            return (Math.abs(x - dst.x) + Math.abs(y - dst.y) + Math.abs(z - dst.z)) / 2;
+        }
+    }
+
+    public static abstract class Entity {
+        protected final int id;
+        protected Coord position;
+
+        public Entity(int id, int x, int y) {
+            this.id = id;
+            this.position = new Coord(x, y);
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public Coord getPosition() {
+            return position;
+        }
+    }
+
+    public class Mine extends Entity {
+        public Mine(int x, int y) {
+            super(nextEntityId++, x, y);
+        }
+
+        /**
+         * same as Referee.Mine.explode
+         *
+         * @return true if the mine exploded
+         */
+        public boolean explode(List<Ship> ships, boolean force) {
+            Ship victim = null;
+
+            for (Ship ship : ships) {
+                if (position.equals(ship.bow()) || position.equals(ship.stern()) || position.equals(ship.position)) {
+                    ship.damage(MINE_DAMAGE);
+                    victim = ship;
+                }
+            }
+
+            if (force || victim != null) {
+                for (Ship ship : ships) {
+                    if (ship != victim) {
+                        Coord impactPosition = null;
+                        if (ship.stern().distanceTo(position) <= 1) {
+                            impactPosition = ship.stern();
+                        }
+                        if (ship.bow().distanceTo(position) <= 1) {
+                            impactPosition = ship.bow();
+                        }
+                        if (ship.position.distanceTo(position) <= 1) {
+                            impactPosition = ship.position;
+                        }
+
+                        if (impactPosition != null) {
+                            ship.damage(NEAR_MINE_DAMAGE);
+                        }
+                    }
+                }
+                return true;
+            }
+            return false;
+        }
+    }
+
+    public class Cannonball extends Entity {
+        final int ownerEntityId;
+        final int initialRemainingTurns;
+        int remainingTurns;
+
+        public Cannonball(int x, int y, int ownerEntityId, int remainingTurns) {
+            super(nextEntityId++, x, y);
+            this.ownerEntityId = ownerEntityId;
+            this.initialRemainingTurns = this.remainingTurns = remainingTurns;
+        }
+
+        public int getOwnerEntityId() {
+            return ownerEntityId;
+        }
+
+        public int getRemainingTurns() {
+            return remainingTurns;
+        }
+    }
+
+    public class RumBarrel extends Entity {
+        private int health;
+
+        public RumBarrel(int x, int y, int health) {
+            super(nextEntityId++, x, y);
+            this.health = health;
+        }
+
+        public int getHealth() {
+            return health;
+        }
+    }
+
+    public enum Action {
+        FASTER, SLOWER, PORT, STARBOARD, FIRE, MINE
+    }
+
+    public class Ship extends Entity {
+        int orientation;
+        int speed;
+        int health;
+        int owner;
+        Action action;
+        int mineCooldown;
+        int cannonCooldown;
+        Coord target;
+        int newOrientation;
+        Coord newPosition;
+        Coord newBowCoordinate;
+        Coord newSternCoordinate;
+
+        public Ship(int x, int y, int orientation, int owner) {
+            super(nextEntityId++, x, y);
+            this.orientation = orientation;
+            this.speed = 0;
+            this.health = INITIAL_SHIP_HEALTH;
+            this.owner = owner;
+        }
+
+        public int getOrientation() {
+            return orientation;
+        }
+
+        public int getSpeed() {
+            return speed;
+        }
+
+        public int getHealth() {
+            return health;
+        }
+
+        public int getOwner() {
+            return owner;
+        }
+
+        public int getMineCooldown() {
+            return mineCooldown;
+        }
+
+        public int getCannonCooldown() {
+            return cannonCooldown;
+        }
+
+        public void moveTo(int x, int y) {
+            Coord currentPosition = this.position;
+            Coord targetPosition = new Coord(x, y);
+
+            if (currentPosition.equals(targetPosition)) {
+                this.action = Action.SLOWER;
+                return;
+            }
+
+            double targetAngle, angleStraight, anglePort, angleStarboard, centerAngle, anglePortCenter, angleStarboardCenter;
+
+            switch (speed) {
+                case 2:
+                    this.action = Action.SLOWER;
+                    break;
+                case 1:
+                    // Suppose we've moved first
+                    currentPosition = currentPosition.neighbor(orientation);
+                    if (!currentPosition.isInsideMap()) {
+                        this.action = Action.SLOWER;
+                        break;
+                    }
+
+                    // Target reached at next turn
+                    if (currentPosition.equals(targetPosition)) {
+                        this.action = null;
+                        break;
+                    }
+
+                    // For each neighbor cell, find the closest to target
+                    targetAngle = currentPosition.angle(targetPosition);
+                    angleStraight = Math.min(Math.abs(orientation - targetAngle), 6 - Math.abs(orientation - targetAngle));
+                    anglePort = Math.min(Math.abs((orientation + 1) - targetAngle), Math.abs((orientation - 5) - targetAngle));
+                    angleStarboard = Math.min(Math.abs((orientation + 5) - targetAngle), Math.abs((orientation - 1) - targetAngle));
+
+                    centerAngle = currentPosition.angle(new Coord(MAP_WIDTH / 2, MAP_HEIGHT / 2));
+                    anglePortCenter = Math.min(Math.abs((orientation + 1) - centerAngle), Math.abs((orientation - 5) - centerAngle));
+                    angleStarboardCenter = Math.min(Math.abs((orientation + 5) - centerAngle), Math.abs((orientation - 1) - centerAngle));
+
+                    // Next to target with bad angle, slow down then rotate (avoid to turn around the target!)
+                    if (currentPosition.distanceTo(targetPosition) == 1 && angleStraight > 1.5) {
+                        this.action = Action.SLOWER;
+                        break;
+                    }
+
+                    Integer distanceMin = null;
+
+                    // Test forward
+                    Coord nextPosition = currentPosition.neighbor(orientation);
+                    if (nextPosition.isInsideMap()) {
+                        distanceMin = nextPosition.distanceTo(targetPosition);
+                        this.action = null;
+                    }
+
+                    // Test port
+                    nextPosition = currentPosition.neighbor((orientation + 1) % 6);
+                    if (nextPosition.isInsideMap()) {
+                        int distance = nextPosition.distanceTo(targetPosition);
+                        if (distanceMin == null || distance < distanceMin || distance == distanceMin && anglePort < angleStraight - 0.5) {
+                            distanceMin = distance;
+                            this.action = Action.PORT;
+                        }
+                    }
+
+                    // Test starboard
+                    nextPosition = currentPosition.neighbor((orientation + 5) % 6);
+                    if (nextPosition.isInsideMap()) {
+                        int distance = nextPosition.distanceTo(targetPosition);
+                        if (distanceMin == null || distance < distanceMin
+                                || (distance == distanceMin && angleStarboard < anglePort - 0.5 && this.action == Action.PORT)
+                                || (distance == distanceMin && angleStarboard < angleStraight - 0.5 && this.action == null)
+                                || (distance == distanceMin && this.action == Action.PORT && angleStarboard == anglePort
+                                && angleStarboardCenter < anglePortCenter)
+                                || (distance == distanceMin && this.action == Action.PORT && angleStarboard == anglePort
+                                && angleStarboardCenter == anglePortCenter && (orientation == 1 || orientation == 4))) {
+                            distanceMin = distance;
+                            this.action = Action.STARBOARD;
+                        }
+                    }
+                    break;
+                case 0:
+                    // Rotate ship towards target
+                    targetAngle = currentPosition.angle(targetPosition);
+                    angleStraight = Math.min(Math.abs(orientation - targetAngle), 6 - Math.abs(orientation - targetAngle));
+                    anglePort = Math.min(Math.abs((orientation + 1) - targetAngle), Math.abs((orientation - 5) - targetAngle));
+                    angleStarboard = Math.min(Math.abs((orientation + 5) - targetAngle), Math.abs((orientation - 1) - targetAngle));
+
+                    centerAngle = currentPosition.angle(new Coord(MAP_WIDTH / 2, MAP_HEIGHT / 2));
+                    anglePortCenter = Math.min(Math.abs((orientation + 1) - centerAngle), Math.abs((orientation - 5) - centerAngle));
+                    angleStarboardCenter = Math.min(Math.abs((orientation + 5) - centerAngle), Math.abs((orientation - 1) - centerAngle));
+
+                    Coord forwardPosition = currentPosition.neighbor(orientation);
+
+                    this.action = null;
+
+                    if (anglePort <= angleStarboard) {
+                        this.action = Action.PORT;
+                    }
+
+                    if (angleStarboard < anglePort || angleStarboard == anglePort && angleStarboardCenter < anglePortCenter
+                            || angleStarboard == anglePort && angleStarboardCenter == anglePortCenter && (orientation == 1 || orientation == 4)) {
+                        this.action = Action.STARBOARD;
+                    }
+
+                    if (forwardPosition.isInsideMap() && angleStraight <= anglePort && angleStraight <= angleStarboard) {
+                        this.action = Action.FASTER;
+                    }
+                    break;
+            }
+        }
+
+        public Coord stern() {
+            return position.neighbor((orientation + 3) % 6);
+        }
+
+        public Coord bow() {
+            return position.neighbor(orientation);
+        }
+
+        public Coord newStern() {
+            return position.neighbor((newOrientation + 3) % 6);
+        }
+
+        public Coord newBow() {
+            return position.neighbor(newOrientation);
+        }
+
+        public boolean at(Coord coord) {
+            Coord stern = stern();
+            Coord bow = bow();
+            return stern != null && stern.equals(coord) || bow != null && bow.equals(coord) || position.equals(coord);
+        }
+
+        public boolean newBowIntersect(Ship other) {
+            return newBowCoordinate != null && (newBowCoordinate.equals(other.newBowCoordinate) || newBowCoordinate.equals(other.newPosition)
+                    || newBowCoordinate.equals(other.newSternCoordinate));
+        }
+
+        public boolean newBowIntersect(List<Ship> ships) {
+            for (Ship other : ships) {
+                if (this != other && newBowIntersect(other)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public boolean newPositionsIntersect(Ship other) {
+            boolean sternCollision = newSternCoordinate != null && (newSternCoordinate.equals(other.newBowCoordinate)
+                    || newSternCoordinate.equals(other.newPosition) || newSternCoordinate.equals(other.newSternCoordinate));
+            boolean centerCollision = newPosition != null && (newPosition.equals(other.newBowCoordinate) || newPosition.equals(other.newPosition)
+                    || newPosition.equals(other.newSternCoordinate));
+            return newBowIntersect(other) || sternCollision || centerCollision;
+        }
+
+        public boolean newPositionsIntersect(List<Ship> ships) {
+            for (Ship other : ships) {
+                if (this != other && newPositionsIntersect(other)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public void damage(int health) {
+            this.health -= health;
+            if (this.health <= 0) {
+                this.health = 0;
+            }
+        }
+
+        public void heal(int health) {
+            this.health += health;
+            if (this.health > MAX_SHIP_HEALTH) {
+                this.health = MAX_SHIP_HEALTH;
+            }
+        }
+
+        public void fire(int x, int y) {
+            this.target = new Coord(x, y);
+            this.action = Action.FIRE;
+        }
+    }
+
+    private static class Team {
+        private final List<Ship> ships = new ArrayList<>();
+        private final List<Ship> shipsAlive = new ArrayList<>();
+
+        public void setDead() {
+            for (Ship ship : ships) {
+                ship.health = 0;
+            }
+        }
+
+        public int getScore() {
+            int score = 0;
+            for (Ship ship : ships) {
+                score += ship.health;
+            }
+            return score;
+        }
+    }
+
+    private int nextEntityId = 0;
+    private final long seed;
+    private final List<Cannonball> cannonballs = new ArrayList<>();
+    private final List<Mine> mines = new ArrayList<>();
+    private final List<RumBarrel> barrels = new ArrayList<>();
+    private final List<Team> teams = new ArrayList<>();
+    private final List<Ship> ships;
+    private final List<Ship> shipLosts = new ArrayList<>();
+    private final List<Coord> cannonBallExplosions = new ArrayList<>();
+    private int round = 0;
+
+    /**
+     * generate the map of a two player game like Referee.initReferee without properties
+     */
+    public LocalReferee(long seed) {
+        this.seed = seed;
+        Random random = new Random(seed);
+
+        int shipsPerPlayer = clamp(random.nextInt(1 + MAX_SHIPS - MIN_SHIPS) + MIN_SHIPS, MIN_SHIPS, MAX_SHIPS);
+        int mineCount = clamp(random.nextInt(MAX_MINES - MIN_MINES) + MIN_MINES, MIN_MINES, MAX_MINES);
+        int barrelCount = clamp(random.nextInt(MAX_RUM_BARRELS - MIN_RUM_BARRELS) + MIN_RUM_BARRELS, MIN_RUM_BARRELS, MAX_RUM_BARRELS);
+
+        teams.add(new Team());
+        teams.add(new Team());
+        for (int j = 0; j < shipsPerPlayer; j++) {
+            int xMin = 1 + j * MAP_WIDTH / shipsPerPlayer;
+            int xMax = (j + 1) * MAP_WIDTH / shipsPerPlayer - 2;
+
+            int y = 1 + random.nextInt(MAP_HEIGHT / 2 - 2);
+            int x = xMin + random.nextInt(1 + xMax - xMin);
+            int orientation = random.nextInt(6);
+
+            Ship ship0 = new Ship(x, y, orientation, 0);
+            Ship ship1 = new Ship(x, MAP_HEIGHT - 1 - y, (6 - orientation) % 6, 1);
+
+            teams.get(0).ships.add(ship0);
+            teams.get(1).ships.add(ship1);
+            teams.get(0).shipsAlive.add(ship0);
+            teams.get(1).shipsAlive.add(ship1);
+        }
+        ships = new ArrayList<>();
+        for (Team team : teams) {
+            ships.addAll(team.ships);
+        }
+
+        while (mines.size() < mineCount) {
+            int x = 1 + random.nextInt(MAP_WIDTH - 2);
+            int y = 1 + random.nextInt(MAP_HEIGHT / 2);
+
+            Mine m = new Mine(x, y);
+            boolean valid = true;
+            for (Ship ship : this.ships) {
+                if (ship.at(m.position)) {
+                    valid = false;
+                    break;
+                }
+            }
+            if (valid) {
+                if (y != MAP_HEIGHT - 1 - y) {
+                    mines.add(new Mine(x, MAP_HEIGHT - 1 - y));
+                }
+                mines.add(m);
+            }
+        }
+
+        while (barrels.size() < barrelCount) {
+            int x = 1 + random.nextInt(MAP_WIDTH - 2);
+            int y = 1 + random.nextInt(MAP_HEIGHT / 2);
+            int h = MIN_RUM_BARREL_VALUE + random.nextInt(1 + MAX_RUM_BARREL_VALUE - MIN_RUM_BARREL_VALUE);
+
+            RumBarrel m = new RumBarrel(x, y, h);
+            boolean valid = true;
+            for (Ship ship : this.ships) {
+                if (ship.at(m.position)) {
+                    valid = false;
+                    break;
+                }
+            }
+            for (Mine mine : this.mines) {
+                if (mine.position.equals(m.position)) {
+                    valid = false;
+                    break;
+                }
+            }
+            if (valid) {
+                if (y != MAP_HEIGHT - 1 - y) {
+                    barrels.add(new RumBarrel(x, MAP_HEIGHT - 1 - y, h));
+                }
+                barrels.add(m);
+            }
+        }
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getRound() {
+        return round;
+    }
+
+    public List<Ship> getShipsAlive(int playerIdx) {
+        return teams.get(playerIdx).shipsAlive;
+    }
+
+    public List<Cannonball> getCannonballs() {
+        return cannonballs;
+    }
+
+    public List<RumBarrel> getBarrels() {
+        return barrels;
+    }
+
+    public List<Mine> getMines() {
+        return mines;
+    }
+
+    /**
+     * @return true if the mine is within the visibility range of one of the player's ships, dead ones included
+     */
+    public boolean isVisible(Mine mine, int playerIdx) {
+        for (Ship ship : teams.get(playerIdx).ships) {
+            if (ship.position.distanceTo(mine.position) <= MINE_VISIBILITY_RANGE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the state of the game for the simulator, with the ships alive in the referee order
+     */
+    public GameState toGameState() {
+        GameState state = new GameState();
+        for (int owner = 0; owner < teams.size(); owner++) {
+            for (Ship ship : teams.get(owner).shipsAlive) {
+                state.addShip(ship.id, owner, ship.position.x, ship.position.y, ship.orientation, ship.speed, ship.health,
+                        ship.mineCooldown, ship.cannonCooldown);
+            }
+        }
+        for (RumBarrel barrel : barrels) {
+            state.addBarrel(barrel.position.x, barrel.position.y, barrel.health);
+        }
+        for (Mine mine : mines) {
+            state.addMine(mine.position.x, mine.position.y);
+        }
+        for (Cannonball ball : cannonballs) {
+            state.addCannonball(ball.position.x, ball.position.y, ball.ownerEntityId, ball.remainingTurns);
+        }
+        return state;
+    }
+
+    public int getScore(int playerIdx) {
+        return teams.get(playerIdx).getScore();
+    }
+
+    public void prepare() {
+        for (Ship ship : ships) {
+            ship.action = null;
+        }
+        cannonBallExplosions.clear();
+        shipLosts.clear();
+    }
+
+    /**
+     * apply the commands of one player, one line per ship alive, like Referee.handlePlayerOutput
+     *
+     * @return false if a line is missing or is not a valid action, the player then loses all its ships
+     */
+    public boolean handlePlayerOutput(int playerIdx, List<String> outputs) {
+        Team team = teams.get(playerIdx);
+        if (outputs.size() < team.shipsAlive.size()) {
+            team.setDead();
+            return false;
+        }
+        for (int i = 0; i < team.shipsAlive.size(); i++) {
+            String line = outputs.get(i);
+            Ship ship = team.shipsAlive.get(i);
+            Matcher matchMove = MOVE_PATTERN.matcher(line);
+            Matcher matchFire = FIRE_PATTERN.matcher(line);
+            if (matchMove.matches()) {
+                ship.moveTo(Integer.parseInt(matchMove.group("x")), Integer.parseInt(matchMove.group("y")));
+            } else if (FASTER_PATTERN.matcher(line).matches()) {
+                ship.action = Action.FASTER;
+            } else if (SLOWER_PATTERN.matcher(line).matches()) {
+                ship.action = Action.SLOWER;
+            } else if (PORT_PATTERN.matcher(line).matches()) {
+                ship.action = Action.PORT;
+            } else if (STARBOARD_PATTERN.matcher(line).matches()) {
+                ship.action = Action.STARBOARD;
+            } else if (WAIT_PATTERN.matcher(line).matches()) {
+                ship.action = null;
+            } else if (MINE_PATTERN.matcher(line).matches()) {
+                ship.action = Action.MINE;
+            } else if (matchFire.matches()) {
+                ship.fire(Integer.parseInt(matchFire.group("x")), Integer.parseInt(matchFire.group("y")));
+            } else {
+                team.setDead();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void decrementRum() {
+        for (Ship ship : ships) {
+            ship.damage(1);
+        }
+    }
+
+    private void moveCannonballs() {
+        for (Iterator<Cannonball> it = cannonballs.iterator(); it.hasNext(); ) {
+            Cannonball ball = it.next();
+            if (ball.remainingTurns == 0) {
+                it.remove();
+                continue;
+            } else if (ball.remainingTurns > 0) {
+                ball.remainingTurns--;
+            }
+
+            if (ball.remainingTurns == 0) {
+                cannonBallExplosions.add(ball.position);
+            }
+        }
+    }
+
+    private void applyActions() {
+        for (Team team : teams) {
+            for (Ship ship : team.shipsAlive) {
+                if (ship.mineCooldown > 0) {
+                    ship.mineCooldown--;
+                }
+                if (ship.cannonCooldown > 0) {
+                    ship.cannonCooldown--;
+                }
+
+                ship.newOrientation = ship.orientation;
+
+                if (ship.action != null) {
+                    switch (ship.action) {
+                        case FASTER:
+                            if (ship.speed < MAX_SHIP_SPEED) {
+                                ship.speed++;
+                            }
+                            break;
+                        case SLOWER:
+                            if (ship.speed > 0) {
+                                ship.speed--;
+                            }
+                            break;
+                        case PORT:
+                            ship.newOrientation = (ship.orientation + 1) % 6;
+                            break;
+                        case STARBOARD:
+                            ship.newOrientation = (ship.orientation + 5) % 6;
+                            break;
+                        case MINE:
+                            if (ship.mineCooldown == 0) {
+                                Coord target = ship.stern().neighbor((ship.orientation + 3) % 6);
+
+                                if (target.isInsideMap()) {
+                                    boolean cellIsFreeOfBarrels = barrels.stream().noneMatch(barrel -> barrel.position.equals(target));
+                                    boolean cellIsFreeOfShips = ships.stream().filter(b -> b != ship).noneMatch(b -> b.at(target));
+
+                                    if (cellIsFreeOfBarrels && cellIsFreeOfShips) {
+                                        ship.mineCooldown = COOLDOWN_MINE;
+                                        mines.add(new Mine(target.x, target.y));
+                                    }
+                                }
+                            }
+                            break;
+                        case FIRE:
+                            int distance = ship.bow().distanceTo(ship.target);
+                            if (ship.target.isInsideMap() && distance <= FIRE_DISTANCE_MAX && ship.cannonCooldown == 0) {
+                                int travelTime = (int) (1 + Math.round(ship.bow().distanceTo(ship.target) / 3.0));
+                                cannonballs.add(new Cannonball(ship.target.x, ship.target.y, ship.id, travelTime));
+                                ship.cannonCooldown = COOLDOWN_CANNON;
+                            }
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean checkCollisions(Ship ship) {
+        Coord bow = ship.bow();
+        Coord stern = ship.stern();
+        Coord center = ship.position;
+
+        // Collision with the barrels
+        for (Iterator<RumBarrel> it = barrels.iterator(); it.hasNext(); ) {
+            RumBarrel barrel = it.next();
+            if (barrel.position.equals(bow) || barrel.position.equals(stern) || barrel.position.equals(center)) {
+                ship.heal(barrel.health);
+                it.remove();
+            }
+        }
+
+        // Collision with the mines
+        for (Iterator<Mine> it = mines.iterator(); it.hasNext(); ) {
+            Mine mine = it.next();
+            if (mine.explode(ships, false)) {
+                it.remove();
+            }
+        }
+
+        return ship.health <= 0;
+    }
+
+    private void moveShips() {
+        // Go forward
+        for (int i = 1; i <= MAX_SHIP_SPEED; i++) {
+            for (Team team : teams) {
+                for (Ship ship : team.shipsAlive) {
+                    ship.newPosition = ship.position;
+                    ship.newBowCoordinate = ship.bow();
+                    ship.newSternCoordinate = ship.stern();
+
+                    if (i > ship.speed) {
+                        continue;
+                    }
+
+                    Coord newCoordinate = ship.position.neighbor(ship.orientation);
+
+                    if (newCoordinate.isInsideMap()) {
+                        // Set new coordinate.
+                        ship.newPosition = newCoordinate;
+                        ship.newBowCoordinate = newCoordinate.neighbor(ship.orientation);
+                        ship.newSternCoordinate = newCoordinate.neighbor((ship.orientation + 3) % 6);
+                    } else {
+                        // Stop ship!
+                        ship.speed = 0;
+                    }
+                }
+            }
+
+            // Check ship and obstacles collisions
+            List<Ship> collisions = new ArrayList<>();
+            boolean collisionDetected = true;
+            while (collisionDetected) {
+                collisionDetected = false;
+
+                for (Ship ship : this.ships) {
+                    if (ship.newBowIntersect(ships)) {
+                        collisions.add(ship);
+                    }
+                }
+
+                for (Ship ship : collisions) {
+                    // Revert last move
+                    ship.newPosition = ship.position;
+                    ship.newBowCoordinate = ship.bow();
+                    ship.newSternCoordinate = ship.stern();
+
+                    // Stop ships
+                    ship.speed = 0;
+
+                    collisionDetected = true;
+                }
+                collisions.clear();
+            }
+
+            for (Team team : teams) {
+                for (Ship ship : team.shipsAlive) {
+                    ship.position = ship.newPosition;
+                    if (checkCollisions(ship)) {
+                        shipLosts.add(ship);
+                    }
+                }
+            }
+        }
+    }
+
+    private void rotateShips() {
+        // Rotate
+        for (Team team : teams) {
+            for (Ship ship : team.shipsAlive) {
+                ship.newPosition = ship.position;
+                ship.newBowCoordinate = ship.newBow();
+                ship.newSternCoordinate = ship.newStern();
+            }
+        }
+
+        // Check collisions
+        boolean collisionDetected = true;
+        List<Ship> collisions = new ArrayList<>();
+        while (collisionDetected) {
+            collisionDetected = false;
+
+            for (Ship ship : this.ships) {
+                if (ship.newPositionsIntersect(ships)) {
+                    collisions.add(ship);
+                }
+            }
+
+            for (Ship ship : collisions) {
+                ship.newOrientation = ship.orientation;
+                ship.newBowCoordinate = ship.newBow();
+                ship.newSternCoordinate = ship.newStern();
+                ship.speed = 0;
+                collisionDetected = true;
+            }
+
+            collisions.clear();
+        }
+
+        // Apply rotation
+        for (Team team : teams) {
+            for (Ship ship : team.shipsAlive) {
+                if (ship.health == 0) {
+                    continue;
+                }
+
+                ship.orientation = ship.newOrientation;
+                if (checkCollisions(ship)) {
+                    shipLosts.add(ship);
+                }
+            }
+        }
+    }
+
+    private boolean gameIsOver() {
+        for (Team team : teams) {
+            if (team.shipsAlive.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void explodeShips() {
+        for (Iterator<Coord> it = cannonBallExplosions.iterator(); it.hasNext(); ) {
+            Coord position = it.next();
+            for (Ship ship : ships) {
+                if (position.equals(ship.bow()) || position.equals(ship.stern())) {
+                    ship.damage(LOW_DAMAGE);
+                    it.remove();
+                    break;
+                } else if (position.equals(ship.position)) {
+                    ship.damage(HIGH_DAMAGE);
+                    it.remove();
+                    break;
+                }
+            }
+        }
+    }
+
+    private void explodeMines() {
+        for (Iterator<Coord> itBall = cannonBallExplosions.iterator(); itBall.hasNext(); ) {
+            Coord position = itBall.next();
+            for (Iterator<Mine> it = mines.iterator(); it.hasNext(); ) {
+                Mine mine = it.next();
+                if (mine.position.equals(position)) {
+                    mine.explode(ships, true);
+                    it.remove();
+                    itBall.remove();
+                    break;
+                }
+            }
+        }
+    }
+
+    private void explodeBarrels() {
+        for (Iterator<Coord> itBall = cannonBallExplosions.iterator(); itBall.hasNext(); ) {
+            Coord position = itBall.next();
+            for (Iterator<RumBarrel> it = barrels.iterator(); it.hasNext(); ) {
+                RumBarrel barrel = it.next();
+                if (barrel.position.equals(position)) {
+                    it.remove();
+                    itBall.remove();
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * play one turn with the actions given by handlePlayerOutput, like Referee.updateGame
+     *
+     * @return true if the game is over, because a player has no ship left or the last round was played
+     */
+    public boolean updateGame() {
+        moveCannonballs();
+        decrementRum();
+
+        applyActions();
+        moveShips();
+        rotateShips();
+
+        explodeShips();
+        explodeMines();
+        explodeBarrels();
+
+        for (Ship ship : shipLosts) {
+            barrels.add(new RumBarrel(ship.position.x, ship.position.y, REWARD_RUM_BARREL_VALUE));
+        }
+
+        for (Iterator<Ship> it = ships.iterator(); it.hasNext(); ) {
+            Ship ship = it.next();
+            if (ship.health <= 0) {
+                teams.get(ship.owner).shipsAlive.remove(ship);
+                it.remove();
+            }
+        }
+
+        round++;
+        return gameIsOver() || round >= MAX_ROUNDS;
+    }
+}
@@ -0,0 +1,212 @@
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Plays seeded local matches between two bots on the LocalReferee port of the game engine, without stdin/stdout.
+ * Bots are fed through the entity add API of Player, the same inputs as the arena gives, and their commands go
+ * through the referee parser. Games run concurrently on all cores.
+ * Run with: java MatchRunner [games] [threads] [first seed] [turn budget in ms] [planner of player 0] [planner of player 1]
+ */
+public class MatchRunner {
+
+    /**
+     * outcome of one game, seen from player 0
+     */
+    static class MatchResult {
+        private final long seed;
+        private final int[] scores;
+        private final int rounds;
+        private final boolean[] invalid;
+        private final long[] turnTimes;
+
+        MatchResult(long seed, int[] scores, int rounds, boolean[] invalid, long[] turnTimes) {
+            this.seed = seed;
+            this.scores = scores;
+            this.rounds = rounds;
+            this.invalid = invalid;
+            this.turnTimes = turnTimes;
+        }
+
+        public long getSeed() {
+            return seed;
+        }
+
+        public int getScore(int playerIdx) {
+            return scores[playerIdx];
+        }
+
+        public int getRounds() {
+            return rounds;
+        }
+
+        /**
+         * @return true if the player gave a missing or invalid command and lost its ships
+         */
+        public boolean isInvalid(int playerIdx) {
+            return invalid[playerIdx];
+        }
+
+        /**
+         * @return getCommands time of every turn of both players, in nanoseconds
+         */
+        public long[] getTurnTimes() {
+            return turnTimes;
+        }
+
+        /**
+         * @return 1 if player 0 won, 0 for a draw, -1 if it lost
+         */
+        public int getOutcome() {
+            return Integer.compare(scores[0], scores[1]);
+        }
+    }
+
+    private final Supplier<Player> bot0;
+    private final Supplier<Player> bot1;
+
+    public MatchRunner(Supplier<Player> bot0, Supplier<Player> bot1) {
+        this.bot0 = bot0;
+        this.bot1 = bot1;
+    }
+
+    /**
+     * @return a bot configured like Player.main
+     */
+    public static Player createBot() {
+        return createBot(Player.Planner.EVOLUTION, Player.TURN_BUDGET);
+    }
+
+    /**
+     * @param turnBudget planning time per turn in nanoseconds, a lower budget than the arena plays more games
+     */
+    public static Player createBot(Player.Planner planner, long turnBudget) {
+        Player player = new Player();
+        player.setPlanner(planner);
+        player.setTurnBudget(turnBudget);
+        player.setReusePlans(true);
+        return player;
+    }
+
+    /**
+     * give the bot the entities the referee sends to the player
+     */
+    static void feed(LocalReferee referee, int playerIdx, Player bot) {
+        bot.clearEntities();
+        for (LocalReferee.Ship ship : referee.getShipsAlive(playerIdx)) {
+            LocalReferee.Coord position = ship.getPosition();
+            bot.addOurShip(new Ship(ship.getId(), position.x, position.y, 1, ship.getHealth(), ship.getSpeed(), ship.getOrientation()));
+        }
+        for (LocalReferee.Ship ship : referee.getShipsAlive(1 - playerIdx)) {
+            LocalReferee.Coord position = ship.getPosition();
+            bot.addEnemyShip(new Ship(ship.getId(), position.x, position.y, 0, ship.getHealth(), ship.getSpeed(), ship.getOrientation()));
+        }
+        for (LocalReferee.Mine mine : referee.getMines()) {
+            if (referee.isVisible(mine, playerIdx)) {
+                bot.addMine(new Mine(mine.getId(), mine.getPosition().x, mine.getPosition().y));
+            }
+        }
+        for (LocalReferee.Cannonball ball : referee.getCannonballs()) {
+            bot.addCannonball(new Cannonball(ball.getId(), ball.getPosition().x, ball.getPosition().y, ball.getRemainingTurns(), ball.getOwnerEntityId()));
+        }
+        for (LocalReferee.RumBarrel barrel : referee.getBarrels()) {
+            bot.addRum(new Rum(barrel.getId(), barrel.getPosition().x, barrel.getPosition().y, barrel.getHealth()));
+        }
+    }
+
+    public MatchResult play(long seed) {
+        LocalReferee referee = new LocalReferee(seed);
+        Player[] bots = {bot0.get(), bot1.get()};
+        boolean[] invalid = new boolean[2];
+        long[] turnTimes = new long[2 * LocalReferee.MAX_ROUNDS];
+        int nbTurns = 0;
+        boolean over = false;
+        while (!over) {
+            referee.prepare();
+            for (int playerIdx = 0; playerIdx < 2; playerIdx++) {
+                feed(referee, playerIdx, bots[playerIdx]);
+                long start = System.nanoTime();
+                List<String> commands = bots[playerIdx].getCommands();
+                turnTimes[nbTurns++] = System.nanoTime() - start;
+                if (!referee.handlePlayerOutput(playerIdx, commands)) {
+                    invalid[playerIdx] = true;
+                }
+            }
+            over = referee.updateGame();
+        }
+        int[] scores = {referee.getScore(0), referee.getScore(1)};
+        return new MatchResult(seed, scores, referee.getRound(), invalid, Arrays.copyOf(turnTimes, nbTurns));
+    }
+
+    /**
+     * play the games of the seeds from firstSeed on, concurrently on the given number of threads
+     */
+    public List<MatchResult> playAll(long firstSeed, int games, int threads) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return pool.submit(() -> IntStream.range(0, games).parallel()
+                    .mapToObj(i -> play(firstSeed + i))
+                    .collect(Collectors.toList())).join();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public static void report(List<MatchResult> results, long elapsed) {
+        int wins = 0, draws = 0, invalid = 0;
+        long rum0 = 0, rum1 = 0, rounds = 0;
+        List<long[]> times = new ArrayList<>();
+        int nbTurns = 0;
+        for (MatchResult result : results) {
+            if (result.getOutcome() > 0) {
+                wins++;
+            } else if (result.getOutcome() == 0) {
+                draws++;
+            }
+            if (result.isInvalid(0) || result.isInvalid(1)) {
+                invalid++;
+            }
+            rum0 += result.getScore(0);
+            rum1 += result.getScore(1);
+            rounds += result.getRounds();
+            times.add(result.getTurnTimes());
+            nbTurns += result.getTurnTimes().length;
+        }
+        long[] turnTimes = new long[nbTurns];
+        int next = 0;
+        for (long[] t : times) {
+            System.arraycopy(t, 0, turnTimes, next, t.length);
+            next += t.length;
+        }
+        Arrays.sort(turnTimes);
+        int games = results.size();
+        System.out.printf("games %d in %.1f s (%.0f games/min), avg rounds %.1f, games with invalid commands %d%n",
+                games, elapsed / 1e9, games * 60e9 / elapsed, (double) rounds / games, invalid);
+        System.out.printf("player 0: win %.1f%% draw %.1f%% loss %.1f%%, avg rum %.1f vs %.1f%n",
+                100.0 * wins / games, 100.0 * draws / games, 100.0 * (games - wins - draws) / games,
+                (double) rum0 / games, (double) rum1 / games);
+        if (nbTurns > 0) {
+            long total = 0;
+            for (long t : turnTimes) {
+                total += t;
+            }
+            System.out.printf("turn latency: avg %.2f ms, p99 %.2f ms, max %.2f ms%n", total / 1e6 / nbTurns,
+                    turnTimes[Math.min(nbTurns - 1, (int) Math.ceil(0.99 * nbTurns) - 1)] / 1e6, turnTimes[nbTurns - 1] / 1e6);
+        }
+    }
+
+    public static void main(String args[]) {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long firstSeed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        long turnBudget = args.length > 3 ? Long.parseLong(args[3]) * 1000000L : Player.TURN_BUDGET;
+        Player.Planner planner0 = args.length > 4 ? Player.Planner.valueOf(args[4]) : Player.Planner.EVOLUTION;
+        Player.Planner planner1 = args.length > 5 ? Player.Planner.valueOf(args[5]) : planner0;
+        MatchRunner runner = new MatchRunner(() -> createBot(planner0, turnBudget), () -> createBot(planner1, turnBudget));
+        long start = System.nanoTime();
+        List<MatchResult> results = runner.playAll(firstSeed, games, threads);
+        report(results, System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,89 @@
+import java.util.*;
+
+/**
+ * Builds OpeningBook.TABLE offline: a breadth first search over all the states of a ship starting at speed 0 in the
+ * middle of the map, pointing in direction 0, finds the shortest line to each target of the book. Between lines of the
+ * same length, the first one in the order of the moves is kept, like in the path searches.
+ * Run with: java OpeningBookGenerator, and paste the output over OpeningBook.TABLE
+ */
+public class OpeningBookGenerator {
+
+    // moves of the lines, the path planners wait with MINE
+    private static final Ship.Action[] MOVES = {Ship.Action.FASTER, Ship.Action.SLOWER, Ship.Action.PORT,
+            Ship.Action.STARBOARD, Ship.Action.MINE};
+    private static final int LINE_WIDTH = 100;
+
+    /**
+     * @return the lines of the targets in the order of OpeningBook.index, in the format of OpeningBook.TABLE
+     */
+    public static String generate() {
+        CubicCoord center = OffsetCoord.MAP_CENTER.toCubic();
+        int[] targets = new int[OpeningBook.SIZE];
+        for (int i = 0; i < OpeningBook.SIZE; i++) {
+            int dx = OpeningBook.getDx(i);
+            int dz = OpeningBook.getDz(i);
+            CubicCoord target = new CubicCoord(center.getX() + dx, center.getY() - dx - dz, center.getZ() + dz);
+            targets[i] = target.toOffset().toCell();
+        }
+
+        int start = ShipState.pack(OffsetCoord.MAP_CENTER.toCell(), 0, 0, 0);
+        // move and previous state of the first line reaching each key
+        int[] previous = new int[ShipState.NB_KEYS];
+        Ship.Action[] moves = new Ship.Action[ShipState.NB_KEYS];
+        Arrays.fill(previous, -1);
+        previous[ShipState.key(start)] = start;
+        String[] lines = new String[OpeningBook.SIZE];
+        int found = 0;
+        List<Integer> frontier = Collections.singletonList(start);
+        while (found < OpeningBook.SIZE) {
+            if (frontier.isEmpty()) {
+                throw new IllegalStateException("targets out of reach " + (OpeningBook.SIZE - found));
+            }
+            for (int state : frontier) {
+                for (int i = 0; i < OpeningBook.SIZE; i++) {
+                    if (lines[i] == null && PackedSearch.overlap(state, targets[i])) {
+                        lines[i] = line(state, start, previous, moves);
+                        found++;
+                    }
+                }
+            }
+            List<Integer> next = new ArrayList<>();
+            for (int state : frontier) {
+                for (Ship.Action move : MOVES) {
+                    int reached = Kinematics.next(Kinematics.transition(state, move));
+                    int key = ShipState.key(reached);
+                    if (previous[key] == -1) {
+                        previous[key] = state;
+                        moves[key] = move;
+                        next.add(reached);
+                    }
+                }
+            }
+            frontier = next;
+        }
+        return String.join(",", lines);
+    }
+
+    private static String line(int state, int start, int[] previous, Ship.Action[] moves) {
+        StringBuilder line = new StringBuilder();
+        for (int s = state; s != start; s = previous[ShipState.key(s)]) {
+            line.append((char) ('0' + moves[ShipState.key(s)].ordinal()));
+        }
+        return line.reverse().toString();
+    }
+
+    public static void main(String args[]) {
+        String table = generate();
+        StringBuilder code = new StringBuilder("    static final String TABLE = \"");
+        int width = code.length();
+        for (int i = 0; i < table.length(); i++) {
+            if (width >= LINE_WIDTH) {
+                code.append("\"\n            + \"");
+                width = 15;
+            }
+            code.append(table.charAt(i));
+            width++;
+        }
+        System.out.println(code.append("\";"));
+    }
+}
@@ -0,0 +1,348 @@
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * Benchmarks of the planner hot paths on fixed seed game states, to catch regressions before submitting a bot version.
+ * Run with: java PlannerBenchmark [measured iterations]
+ * <p>
+ * Each benchmark is warmed up then measured, and reports the time per operation, the bytes allocated per operation
+ * and, for searches, the nodes generated per second. getCommands also reports the latency percentiles per turn.
+ * Node counts are taken from PackedSearch, Ship.bestPath generates the same nodes.
+ */
+public class PlannerBenchmark {
+
+    private static final int SEEDS = 50;
+    private static final int WARMUP_ITERATIONS = 5;
+
+    enum Scenario {
+        EMPTY(0, 0, 0), CLUTTERED(24, 6, 4), MINE_HEAVY(6, 30, 2);
+
+        private final int barrels;
+        private final int mines;
+        private final int cannonballs;
+
+        Scenario(int barrels, int mines, int cannonballs) {
+            this.barrels = barrels;
+            this.mines = mines;
+            this.cannonballs = cannonballs;
+        }
+    }
+
+    interface Operation {
+        /**
+         * @return number of search nodes generated, 0 if not a search
+         */
+        long run();
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final int iterations;
+
+    public PlannerBenchmark(int iterations) {
+        this.iterations = iterations;
+    }
+
+    /**
+     * @return a game state of the scenario, the same for a given seed. Empty maps get a single far barrel as target.
+     */
+    static Player createGame(Scenario scenario, int seed) {
+        Random random = new Random(seed);
+        Player player = new Player();
+        int id = 0;
+        int nbShips = 1 + random.nextInt(3);
+        for (int i = 0; i < nbShips; i++) {
+            player.addOurShip(new Ship(id++, 1 + random.nextInt(21), 1 + random.nextInt(19), 1, 50 + random.nextInt(50), random.nextInt(3), random.nextInt(6)));
+            player.addEnemyShip(new Ship(id++, 1 + random.nextInt(21), 1 + random.nextInt(19), 0, 50 + random.nextInt(50), random.nextInt(3), random.nextInt(6)));
+        }
+        if (scenario == Scenario.EMPTY) {
+            Ship ship = player.getOurShips().get(0);
+            player.addRum(new Rum(id++, ship.getCol() < 11 ? 21 : 1, ship.getRow() < 10 ? 19 : 1, 10));
+        }
+        for (int i = 0; i < scenario.barrels; i++) {
+            player.addRum(new Rum(id++, random.nextInt(23), random.nextInt(21), 10 + random.nextInt(11)));
+        }
+        for (int i = 0; i < scenario.mines; i++) {
+            player.addMine(new Mine(id++, random.nextInt(23), random.nextInt(21)));
+        }
+        for (int i = 0; i < scenario.cannonballs; i++) {
+            player.addCannonball(new Cannonball(id++, random.nextInt(23), random.nextInt(21), 1 + random.nextInt(4), 1));
+        }
+        return player;
+    }
+
+    private static List<Ship> allShips(Player game) {
+        List<Ship> ships = new ArrayList<>(game.getOurShips());
+        ships.addAll(game.getEnemyShips());
+        return ships;
+    }
+
+    /**
+     * run the operation for the warm up then the measured iterations and print one result line
+     */
+    private void measure(String name, int operationsPerRun, Operation operation) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            operation.run();
+        }
+        long thread = Thread.currentThread().getId();
+        long nodes = 0;
+        long allocated = THREADS.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            nodes += operation.run();
+        }
+        long time = System.nanoTime() - start;
+        allocated = THREADS.getThreadAllocatedBytes(thread) - allocated;
+        long operations = (long) iterations * operationsPerRun;
+        System.out.printf("%-36s %12.1f ns/op %12.0f B/op", name, (double) time / operations, (double) allocated / operations);
+        if (nodes > 0) {
+            System.out.printf(" %12.0f nodes/s", nodes * 1e9 / time);
+        }
+        System.out.println();
+    }
+
+    private void benchDistance() {
+        OffsetCoord[] coords = new OffsetCoord[OffsetCoord.NB_CELLS];
+        for (int cell = 0; cell < coords.length; cell++) {
+            coords[cell] = OffsetCoord.fromCell(cell);
+        }
+        measure("OffsetCoord.distance", coords.length * coords.length, () -> {
+            long sum = 0;
+            for (OffsetCoord from : coords) {
+                for (OffsetCoord to : coords) {
+                    sum += from.distance(to);
+                }
+            }
+            // keep the result alive
+            return sum < 0 ? 1 : 0;
+        });
+    }
+
+    private void benchMoveRotate() {
+        Player game = createGame(Scenario.CLUTTERED, 0);
+        List<Ship> ships = allShips(game);
+        Ship ship = game.getOurShips().get(0);
+        Board board = new Board(ships, game.getRums(), game.getMines());
+        ImpactTable impacts = new ImpactTable(game.getCannonballs());
+        Ship.Action[] actions = Ship.MOVES;
+        measure("Ship.move/rotate lists", actions.length, () -> {
+            for (Ship.Action action : actions) {
+                Ship next = new Ship(ship);
+                next.applyAction(action);
+                next.move(ships, game.getMines(), game.getRums(), game.getCannonballs());
+                next.rotate(ships, game.getMines(), game.getRums(), game.getCannonballs(), 1);
+            }
+            return 0;
+        });
+        measure("Ship.move/rotate board", actions.length, () -> {
+            for (Ship.Action action : actions) {
+                Ship next = new Ship(ship);
+                next.applyAction(action);
+                next.move(board);
+                next.rotate(board, impacts, 1);
+            }
+            return 0;
+        });
+    }
+
+    private void benchBestPath(Scenario scenario) {
+        List<Player> games = new ArrayList<>();
+        int targets = 0;
+        for (int seed = 0; seed < SEEDS; seed++) {
+            Player game = createGame(scenario, seed);
+            games.add(game);
+            targets += game.getRums().size();
+        }
+        PackedSearch search = new PackedSearch();
+        // nodes generated by each game, shared by both searches which expand the same nodes
+        long[] nodes = new long[SEEDS];
+        measure("PackedSearch.bestPath " + scenario, targets, () -> {
+            long total = 0;
+            for (int i = 0; i < games.size(); i++) {
+                Player game = games.get(i);
+                Ship ship = game.getOurShips().get(0);
+                search.setWorld(ship, allShips(game), game.getRums(), game.getMines(), game.getCannonballs());
+                nodes[i] = 0;
+                for (Rum rum : game.getRums()) {
+                    search.bestPath(ship, rum.getCoord());
+                    nodes[i] += search.getNodeCount();
+                }
+                total += nodes[i];
+            }
+            return total;
+        });
+        measure("Ship.bestPath " + scenario, targets, () -> {
+            long total = 0;
+            for (int i = 0; i < games.size(); i++) {
+                Player game = games.get(i);
+                Ship ship = game.getOurShips().get(0);
+                List<Ship> ships = allShips(game);
+                for (Rum rum : game.getRums()) {
+                    ship.bestPath(rum.getCoord(), ships, game.getRums(), game.getMines(), game.getCannonballs());
+                }
+                total += nodes[i];
+            }
+            return total;
+        });
+    }
+
+    private void benchGameState() {
+        final int turns = 50;
+        List<GameState> games = new ArrayList<>();
+        for (int seed = 0; seed < SEEDS; seed++) {
+            games.add(new LocalReferee(seed).toGameState());
+        }
+        GameState state = new GameState();
+        Ship.Action[] actions = Ship.MOVES;
+        measure("GameState.step rollouts", SEEDS * turns, () -> {
+            // xorshift keeps the random actions allocation free
+            long random = 88172645463325252L;
+            for (GameState game : games) {
+                state.copyFrom(game);
+                for (int turn = 0; turn < turns; turn++) {
+                    for (int ship = 0; ship < state.getShipCount(); ship++) {
+                        random ^= random << 13;
+                        random ^= random >>> 7;
+                        random ^= random << 17;
+                        state.setAction(ship, actions[(int) ((random >>> 1) % actions.length)]);
+                    }
+                    state.step();
+                }
+            }
+            return 0;
+        });
+    }
+
+    /**
+     * @return the referee input of a turn of the game, as seen by the player owning the ships of owner 1
+     */
+    static String turnInput(Player game) {
+        StringBuilder input = new StringBuilder();
+        int entities = game.getOurShipCount() + game.getEnemyShips().size() + game.getRums().size() + game.getMines().size()
+                + game.getCannonballs().size();
+        input.append(game.getOurShipCount()).append('\n').append(entities).append('\n');
+        for (Ship ship : allShips(game)) {
+            input.append(String.format("%d SHIP %d %d %d %d %d %d%n", ship.getId(), ship.getCol(), ship.getRow(),
+                    ship.getDirection(), ship.getSpeed(), ship.getQuant(), ship.getOwner()));
+        }
+        for (Rum rum : game.getRums()) {
+            input.append(String.format("%d BARREL %d %d %d 0 0 0%n", rum.getId(), rum.getCol(), rum.getRow(), rum.getQuant()));
+        }
+        for (Mine mine : game.getMines()) {
+            input.append(String.format("%d MINE %d %d 0 0 0 0%n", mine.getId(), mine.getCol(), mine.getRow()));
+        }
+        for (Cannonball ball : game.getCannonballs()) {
+            input.append(String.format("%d CANNONBALL %d %d %d %d 0 0%n", ball.getId(), ball.getCol(), ball.getRow(),
+                    ball.getOwnerID(), ball.getInitialRemainingTurns()));
+        }
+        return input.toString();
+    }
+
+    /**
+     * the parsing of Player.main before InputReader, for comparison
+     */
+    private static void readTurn(Scanner in, Player player) {
+        player.clearEntities();
+        in.nextInt();
+        int entityCount = in.nextInt();
+        for (int i = 0; i < entityCount; i++) {
+            int entityId = in.nextInt();
+            String entityType = in.next();
+            int x = in.nextInt();
+            int y = in.nextInt();
+            int arg1 = in.nextInt();
+            int arg2 = in.nextInt();
+            int arg3 = in.nextInt();
+            int arg4 = in.nextInt();
+            switch (entityType) {
+                case "SHIP":
+                    if (arg4 == 1) {
+                        player.addOurShip(new Ship(entityId, x, y, arg4, arg3, arg2, arg1));
+                    } else {
+                        player.addEnemyShip(new Ship(entityId, x, y, arg4, arg3, arg2, arg1));
+                    }
+                    break;
+                case "BARREL":
+                    player.addRum(new Rum(entityId, x, y, arg1));
+                    break;
+                case "MINE":
+                    player.addMine(new Mine(entityId, x, y));
+                    break;
+                case "CANNONBALL":
+                    player.addCannonball(new Cannonball(entityId, x, y, arg2, arg1));
+                    break;
+            }
+        }
+    }
+
+    private void benchInput() {
+        final int turns = 100;
+        StringBuilder text = new StringBuilder();
+        for (int turn = 0; turn < turns; turn++) {
+            text.append(turnInput(createGame(Scenario.CLUTTERED, turn)));
+        }
+        byte[] input = text.toString().getBytes();
+        Player player = new Player();
+        measure("Scanner turn input", turns, () -> {
+            Scanner in = new Scanner(new ByteArrayInputStream(input));
+            for (int turn = 0; turn < turns; turn++) {
+                readTurn(in, player);
+            }
+            return 0;
+        });
+        measure("InputReader turn input", turns, () -> {
+            InputReader in = new InputReader(new ByteArrayInputStream(input), false);
+            for (int turn = 0; turn < turns; turn++) {
+                player.readTurn(in);
+            }
+            return 0;
+        });
+    }
+
+    private void benchGetCommands(Scenario scenario) {
+        long[] latencies = new long[(WARMUP_ITERATIONS + iterations) * SEEDS];
+        int[] next = new int[1];
+        measure("Player.getCommands " + scenario, SEEDS, () -> {
+            for (int seed = 0; seed < SEEDS; seed++) {
+                Player game = createGame(scenario, seed);
+                long start = System.nanoTime();
+                game.getCommands();
+                if (next[0] < latencies.length) {
+                    latencies[next[0]++] = System.nanoTime() - start;
+                }
+            }
+            return 0;
+        });
+        // the warm up runs filled the first slots, only keep the measured turns
+        long[] measured = Arrays.copyOfRange(latencies, Math.min(WARMUP_ITERATIONS * SEEDS, next[0]), next[0]);
+        Arrays.sort(measured);
+        if (measured.length > 0) {
+            System.out.printf("%-36s p50 %8.1f us  p99 %8.1f us  max %8.1f us%n", "  latency per turn",
+                    percentile(measured, 0.50) / 1e3, percentile(measured, 0.99) / 1e3, measured[measured.length - 1] / 1e3);
+        }
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1)];
+    }
+
+    public void run() {
+        benchDistance();
+        benchInput();
+        benchMoveRotate();
+        benchGameState();
+        for (Scenario scenario : Scenario.values()) {
+            benchBestPath(scenario);
+        }
+        for (Scenario scenario : Scenario.values()) {
+            benchGetCommands(scenario);
+        }
+    }
+
+    public static void main(String args[]) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        new PlannerBenchmark(iterations).run();
+    }
+}
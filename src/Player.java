@@ -1,4 +1,18 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
 
 class CubicCoord {
 
@@ -28,6 +42,10 @@ class CubicCoord {
         return (Math.abs(x - t.x) + Math.abs(y - t.y) + Math.abs(z - t.z)) / 2;
     }
 
+    public OffsetCoord toOffset() {
+        return new OffsetCoord(x + (z - (z & 1)) / 2, z);
+    }
+
 }
 
 class OffsetCoord {
@@ -37,8 +55,33 @@ class OffsetCoord {
     private final static int[][] DIRECTIONS_ODD = new int[][]{{1, 0}, {1, -1}, {0, -1}, {-1, 0}, {0, 1}, {1, 1}};
     public static final int MAP_WIDTH = 23;
     public static final int MAP_HEIGHT = 21;
+    public static final int NB_CELLS = MAP_WIDTH * MAP_HEIGHT;
     public static OffsetCoord MAP_CENTER = new OffsetCoord(MAP_WIDTH / 2, MAP_HEIGHT / 2);
 
+    // lookup tables indexed by cell = row * MAP_WIDTH + col, the map is fixed so they are computed once
+    private final static OffsetCoord[] CELLS = new OffsetCoord[NB_CELLS];
+    private final static OffsetCoord[][] NEIGHBOR_COORDS = new OffsetCoord[NB_CELLS][6];
+    private final static int[][] NEIGHBOR_CELLS = new int[NB_CELLS][6];
+    private final static int[][] DISTANCES = new int[NB_CELLS][NB_CELLS];
+
+    static {
+        for (int cell = 0; cell < NB_CELLS; cell++) {
+            CELLS[cell] = new OffsetCoord(cell % MAP_WIDTH, cell / MAP_WIDTH);
+        }
+        for (int cell = 0; cell < NB_CELLS; cell++) {
+            for (int orientation = 0; orientation < 6; orientation++) {
+                OffsetCoord n = CELLS[cell].computeNeighbor(orientation);
+                // neighbors outside the map are kept as coordinates, but have no cell index
+                NEIGHBOR_COORDS[cell][orientation] = n.isInsideMap() ? CELLS[n.toCell()] : n;
+                NEIGHBOR_CELLS[cell][orientation] = n.toCell();
+            }
+            CubicCoord cubic = CELLS[cell].toCubic();
+            for (int other = 0; other < NB_CELLS; other++) {
+                DISTANCES[cell][other] = cubic.distance(CELLS[other].toCubic());
+            }
+        }
+    }
+
     private int col;
     private int row;
 
@@ -78,7 +121,39 @@ class OffsetCoord {
         return result;
     }
 
+    /**
+     * @return index of the coordinate in the cell lookup tables, -1 if outside the map
+     */
+    public int toCell() {
+        if (!isInsideMap()) {
+            return -1;
+        }
+        return row * MAP_WIDTH + col;
+    }
+
+    public static OffsetCoord fromCell(int cell) {
+        return CELLS[cell];
+    }
+
+    /**
+     * @return cell index of the neighbor in the given orientation, -1 if it is outside the map
+     */
+    public static int neighborCell(int cell, int orientation) {
+        return NEIGHBOR_CELLS[cell][orientation];
+    }
+
+    public static int cellDistance(int cell, int other) {
+        return DISTANCES[cell][other];
+    }
+
     public OffsetCoord neighbor(int orientation) {
+        if (isInsideMap()) {
+            return NEIGHBOR_COORDS[toCell()][orientation];
+        }
+        return computeNeighbor(orientation);
+    }
+
+    private OffsetCoord computeNeighbor(int orientation) {
         int newRow, newCol;
         if (this.row % 2 == 1) {
             newRow = this.row + DIRECTIONS_ODD[orientation][1];
@@ -102,6 +177,9 @@ class OffsetCoord {
     }
 
     public int distance(OffsetCoord t) {
+        if (isInsideMap() && t.isInsideMap()) {
+            return DISTANCES[toCell()][t.toCell()];
+        }
         return toCubic().distance(t.toCubic());
     }
 
@@ -130,6 +208,293 @@ class OffsetCoord {
     }
 }
 
+/**
+ * Set of map cells stored as a bitboard, one bit per cell
+ */
+class CellSet {
+
+    private final long[] bits = new long[(OffsetCoord.NB_CELLS + 63) / 64];
+
+    public void add(int cell) {
+        bits[cell >>> 6] |= 1L << cell;
+    }
+
+    /**
+     * @return true if the cell is in the set, false for -1, the cell index of coordinates outside the map
+     */
+    public boolean contains(int cell) {
+        return cell != -1 && (bits[cell >>> 6] & (1L << cell)) != 0;
+    }
+
+    public void clear() {
+        Arrays.fill(bits, 0);
+    }
+
+    public void addAll(CellSet other) {
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] |= other.bits[i];
+        }
+    }
+
+    public boolean isEmpty() {
+        for (long word : bits) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
+
+/**
+ * Cells occupied by ships, barrels and mines during one turn, built once from the entity lists and only read after,
+ * so that collision and pickup checks are bit tests instead of scans of the entity lists.
+ */
+class Board {
+
+    private static final int SEVERAL_SHIPS = -2;
+
+    private final CellSet shipCells = new CellSet();
+    private final CellSet barrelCells = new CellSet();
+    private final CellSet mineCells = new CellSet();
+    // cells holding a barrel or a mine
+    private final CellSet itemCells = new CellSet();
+    // id of the ship on each occupied cell, SEVERAL_SHIPS if ships overlap there
+    private final int[] shipIds = new int[OffsetCoord.NB_CELLS];
+    private final int[] barrelQuant = new int[OffsetCoord.NB_CELLS];
+    private final int[] mineCount = new int[OffsetCoord.NB_CELLS];
+
+    public Board(Iterable<Ship> ships, Iterable<Rum> rums, Iterable<Mine> mines) {
+        for (Ship ship : ships) {
+            for (OffsetCoord coord : ship.getPositions()) {
+                int cell = coord.toCell();
+                if (cell != -1) {
+                    shipIds[cell] = shipCells.contains(cell) && shipIds[cell] != ship.getId() ? SEVERAL_SHIPS : ship.getId();
+                    shipCells.add(cell);
+                }
+            }
+        }
+        for (Rum rum : rums) {
+            int cell = rum.getCell();
+            if (cell != -1) {
+                barrelCells.add(cell);
+                barrelQuant[cell] += rum.getQuant();
+            }
+        }
+        for (Mine mine : mines) {
+            int cell = mine.getCell();
+            if (cell != -1) {
+                mineCells.add(cell);
+                mineCount[cell]++;
+            }
+        }
+        itemCells.addAll(barrelCells);
+        itemCells.addAll(mineCells);
+    }
+
+    /**
+     * @return true if a ship other than the given one occupies the cell
+     */
+    public boolean hasShip(int cell, int shipId) {
+        return shipCells.contains(cell) && shipIds[cell] != shipId;
+    }
+
+    /**
+     * @return true if a ship placed at the cell with the given direction overlaps another ship
+     */
+    public boolean collides(int cell, int direction, int shipId) {
+        return hasShip(cell, shipId) || hasShip(OffsetCoord.neighborCell(cell, direction), shipId)
+                || hasShip(OffsetCoord.neighborCell(cell, (direction + 3) % 6), shipId);
+    }
+
+    public boolean hasItem(int cell) {
+        return itemCells.contains(cell);
+    }
+
+    public int getBarrelQuant(int cell) {
+        return barrelCells.contains(cell) ? barrelQuant[cell] : 0;
+    }
+
+    public int getMineCount(int cell) {
+        return mineCells.contains(cell) ? mineCount[cell] : 0;
+    }
+
+    public CellSet getShipCells() {
+        return shipCells;
+    }
+
+    public CellSet getItemCells() {
+        return itemCells;
+    }
+
+    public CellSet getBarrelCells() {
+        return barrelCells;
+    }
+
+    public CellSet getMineCells() {
+        return mineCells;
+    }
+}
+
+/**
+ * Cannonball impacts of one turn, indexed by the turns elapsed since the cannonballs were observed and by cell.
+ * Built once from the cannonball list and only read after, so searches look up the cells hit at a given depth instead
+ * of rewriting the remaining turns of every cannonball for every simulated move.
+ */
+class ImpactTable {
+
+    // cannonballs fly at most 1 + round(10 / 3) turns, a ball observed with t remaining turns hits after t - 1 turns
+    public static final int MAX_TURNS = 5;
+
+    private final CellSet[] impactCells = new CellSet[MAX_TURNS];
+    // number of cannonballs landing on each cell, indexed by elapsedTurns * NB_CELLS + cell
+    private final int[] impactCount = new int[MAX_TURNS * OffsetCoord.NB_CELLS];
+
+    public ImpactTable(Iterable<Cannonball> cannonballs) {
+        for (int turn = 0; turn < MAX_TURNS; turn++) {
+            impactCells[turn] = new CellSet();
+        }
+        for (Cannonball ball : cannonballs) {
+            // same timing as Ship.checkCannonballs, the ball hits when initialRemainingTurns - elapsedTurns == 1
+            int turn = ball.getInitialRemainingTurns() - 1;
+            int cell = ball.getCell();
+            if (cell != -1 && turn >= 0 && turn < MAX_TURNS) {
+                impactCells[turn].add(cell);
+                impactCount[turn * OffsetCoord.NB_CELLS + cell]++;
+            }
+        }
+    }
+
+    /**
+     * @return true if at least one cannonball lands on the cell once the given turns have elapsed
+     */
+    public boolean isHit(int elapsedTurns, int cell) {
+        return elapsedTurns >= 0 && elapsedTurns < MAX_TURNS && impactCells[elapsedTurns].contains(cell);
+    }
+
+    /**
+     * @return the damage done to a ship with the given bow, center and stern cells once the given turns have elapsed
+     */
+    public int damage(int elapsedTurns, int bow, int cell, int stern) {
+        if (elapsedTurns < 0 || elapsedTurns >= MAX_TURNS) {
+            return 0;
+        }
+        CellSet hits = impactCells[elapsedTurns];
+        if (!hits.contains(cell) && !hits.contains(bow) && !hits.contains(stern)) {
+            return 0;
+        }
+        int offset = elapsedTurns * OffsetCoord.NB_CELLS;
+        int damage = 0;
+        if (bow != -1) {
+            damage += Cannonball.LOW_DAMAGE * impactCount[offset + bow];
+        }
+        if (stern != -1) {
+            damage += Cannonball.LOW_DAMAGE * impactCount[offset + stern];
+        }
+        return damage + Cannonball.HIGH_DAMAGE * impactCount[offset + cell];
+    }
+
+    public CellSet getImpactCells(int elapsedTurns) {
+        return impactCells[elapsedTurns];
+    }
+}
+
+/**
+ * Cells occupied by the ships during the next turns, predicted by dead reckoning: each ship keeps its speed and
+ * direction, and stops when it would leave the map like in the referee. Collisions between the predicted ships are not
+ * simulated.
+ * Built once per turn and only read after, so searches look up the cells occupied at a given depth instead of testing
+ * every move against the current positions of the ships.
+ */
+class MotionPredictor {
+
+    // turns predicted, deeper turns see the ships where they are at the last predicted turn. In local matches of the
+    // PACKED planner, predicting further made it lose more games, ships rarely keep their course that long
+    public static final int MAX_TURNS = 2;
+    // bow, center and stern
+    private static final int SHIP_CELLS = 3;
+
+    private final int nbShips;
+    private final int[] shipIds;
+    // cells of each ship and turn, indexed by (ship * (MAX_TURNS + 1) + turn) * SHIP_CELLS, -1 outside the map
+    private final int[] cells;
+
+    public MotionPredictor(Collection<Ship> ships) {
+        nbShips = ships.size();
+        shipIds = new int[nbShips];
+        cells = new int[nbShips * (MAX_TURNS + 1) * SHIP_CELLS];
+        Arrays.fill(cells, -1);
+        int ship = 0;
+        for (Ship s : ships) {
+            shipIds[ship] = s.getId();
+            int cell = s.getCell();
+            int direction = s.getDirection();
+            int speed = s.getSpeed();
+            for (int turn = 0; turn <= MAX_TURNS && cell != -1; turn++) {
+                if (turn > 0) {
+                    for (int i = 0; i < speed; i++) {
+                        int next = OffsetCoord.neighborCell(cell, direction);
+                        if (next == -1) {
+                            speed = 0;
+                            break;
+                        }
+                        cell = next;
+                    }
+                }
+                int offset = index(ship, turn);
+                cells[offset] = OffsetCoord.neighborCell(cell, direction);
+                cells[offset + 1] = cell;
+                cells[offset + 2] = OffsetCoord.neighborCell(cell, (direction + 3) % 6);
+            }
+            ship++;
+        }
+    }
+
+    private static int index(int ship, int turn) {
+        return (ship * (MAX_TURNS + 1) + turn) * SHIP_CELLS;
+    }
+
+    /**
+     * add to the set the cells occupied after the given turns by the ships other than the given one
+     */
+    public void addOccupied(int turn, int shipId, CellSet occupied) {
+        int t = Math.min(turn, MAX_TURNS);
+        for (int ship = 0; ship < nbShips; ship++) {
+            if (shipIds[ship] == shipId) {
+                continue;
+            }
+            int offset = index(ship, t);
+            for (int k = 0; k < SHIP_CELLS; k++) {
+                if (cells[offset + k] != -1) {
+                    occupied.add(cells[offset + k]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if a ship other than the given one occupies the cell after the given turns
+     */
+    public boolean isOccupied(int turn, int cell, int shipId) {
+        if (cell == -1) {
+            return false;
+        }
+        int t = Math.min(turn, MAX_TURNS);
+        for (int ship = 0; ship < nbShips; ship++) {
+            if (shipIds[ship] == shipId) {
+                continue;
+            }
+            int offset = index(ship, t);
+            for (int k = 0; k < SHIP_CELLS; k++) {
+                if (cells[offset + k] == cell) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
+
 class MoveSequence {
     private int gain;
     private List<Ship.Action> moves;
@@ -148,21 +513,42 @@ class MoveSequence {
     }
 }
 
-class StatusActionPair {
-    private Ship status;
-    private Ship.Action action;
+/**
+ * Remaining moves of the plan a ship follows towards a barrel, with the states it expects along the way
+ */
+class CachedPlan {
+    private int expectedState;
+    private List<Ship.Action> moves;
+    private int target;
+    private int finalState;
 
-    public StatusActionPair(Ship status, Ship.Action action) {
-        this.status = status;
-        this.action = action;
+    public CachedPlan(int expectedState, List<Ship.Action> moves, int target, int finalState) {
+        this.expectedState = expectedState;
+        this.moves = moves;
+        this.target = target;
+        this.finalState = finalState;
     }
 
-    public Ship getStatus() {
-        return status;
+    /**
+     * @return packed state the ship should be in when the plan is resumed
+     */
+    public int getExpectedState() {
+        return expectedState;
     }
 
-    public Ship.Action getAction() {
-        return action;
+    public List<Ship.Action> getMoves() {
+        return moves;
+    }
+
+    public int getTarget() {
+        return target;
+    }
+
+    /**
+     * @return packed state reached at the end of the moves
+     */
+    public int getFinalState() {
+        return finalState;
     }
 }
 
@@ -170,17 +556,36 @@ class StatusPriorityPair implements Comparable<StatusPriorityPair> {
     private Ship status;
     private int priority;
     private int turnCounter;
+    private StatusPriorityPair parent;
+    private Ship.Action action;
 
     public StatusPriorityPair(Ship status, int priority, int turnCounter) {
+        this(status, priority, turnCounter, null, Ship.Action.EMPTY);
+    }
+
+    public StatusPriorityPair(Ship status, int priority, int turnCounter, StatusPriorityPair parent, Ship.Action action) {
         this.status = status;
         this.priority = priority;
         this.turnCounter = turnCounter;
+        this.parent = parent;
+        this.action = action;
     }
 
     public Ship getStatus() {
         return status;
     }
 
+    /**
+     * @return the status this one was reached from, null for the initial status
+     */
+    public StatusPriorityPair getParent() {
+        return parent;
+    }
+
+    public Ship.Action getAction() {
+        return action;
+    }
+
     public int getPriority() {
         return priority;
     }
@@ -244,6 +649,10 @@ class Entity {
         return location;
     }
 
+    public int getCell() {
+        return location.toCell();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -355,52 +764,20 @@ class Cannonball extends Entity {
 }
 
 
-class ShipMoveStatus extends Entity {
-    private int speed;
-    private int direction;
-
-    public ShipMoveStatus(int id, int col, int row, int speed, int direction) {
-        super(id, col, row);
-        this.speed = speed;
-        this.direction = direction;
-    }
-
-    public ShipMoveStatus(int id, OffsetCoord loc, int speed, int direction) {
-        super(id, loc);
-        this.speed = speed;
-        this.direction = direction;
-    }
-
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        if (!super.equals(o)) return false;
-
-        ShipMoveStatus that = (ShipMoveStatus) o;
-
-        if (speed != that.speed) return false;
-        return direction == that.direction;
-    }
-
-    @Override
-    public int hashCode() {
-        int result = super.hashCode();
-        result = 31 * result + speed;
-        result = 31 * result + direction;
-        return result;
-    }
-}
-
 class Ship extends Entity {
 
     public static final int MAX_SHIP_SPEED = 2;
     public static final int MAX_SHIP_QUANT = 100;
+    // bestPath is single threaded per caller, each thread reuses its own table
+    private static final ThreadLocal<StateTable> STATE_TABLE = ThreadLocal.withInitial(StateTable::new);
 
     public static enum Action {
-        FASTER, SLOWER, PORT, STARBOARD, MINE, EMPTY// , FIRE,
+        FASTER, SLOWER, PORT, STARBOARD, MINE, EMPTY, FIRE
     }
 
+    // actions expanded by the path searches, FIRE needs a target and moves the ship like EMPTY
+    public static final Action[] MOVES = {Action.FASTER, Action.SLOWER, Action.PORT, Action.STARBOARD, Action.MINE, Action.EMPTY};
+
     private int owner;
     private int quant;
     private int speed;
@@ -424,8 +801,11 @@ class Ship extends Entity {
         this.newDirection = ship.newDirection;
     }
 
-    private ShipMoveStatus getMoveStatus() {
-        return new ShipMoveStatus(this.getId(), this.getCoord(), this.speed, this.direction);
+    /**
+     * @return dense index of the ship position, direction and speed, see ShipState.key
+     */
+    public int getStateKey() {
+        return ShipState.key(ShipState.of(this));
     }
 
     public int getOwner() {
@@ -521,6 +901,14 @@ class Ship extends Entity {
     }
 
     public void rotate(final Iterable<Ship> ships, final Iterable<Mine> mines, final Iterable<Rum> barrels, final Iterable<Cannonball> cannonballs) {
+        rotate(ships, mines, barrels, cannonballs, -1);
+    }
+
+    /**
+     * @param elapsedTurns turns since the cannonballs were observed, their remaining turns are then derived from their
+     *                     initial remaining turns and the cannonballs are left untouched, -1 to use their remaining turns
+     */
+    public void rotate(final Iterable<Ship> ships, final Iterable<Mine> mines, final Iterable<Rum> barrels, final Iterable<Cannonball> cannonballs, int elapsedTurns) {
         if (this.getNewDirection() == -1) {
             this.setNewDirection(this.getDirection());
         }
@@ -541,7 +929,31 @@ class Ship extends Entity {
 
         // Apply rotation
         this.setDirection(this.getNewDirection());
-        checkCollisions(mines, barrels, cannonballs, true);
+        checkCollisions(mines, barrels, cannonballs, true, elapsedTurns);
+        this.setNewDirection(-1);
+    }
+
+    /**
+     * same as rotate, with ship collisions, barrels and mines read from the board and cannonballs from the impact table
+     *
+     * @param elapsedTurns turns since the cannonballs of the impact table were observed
+     */
+    public void rotate(final Board board, final ImpactTable impacts, int elapsedTurns) {
+        if (this.getNewDirection() == -1) {
+            this.setNewDirection(this.getDirection());
+        }
+        OffsetCoord newCoord = this.getNewCoord() == null ? this.getCoord() : this.getNewCoord();
+        if (board.collides(newCoord.toCell(), this.getNewDirection(), this.getId())) {
+            this.setNewDirection(this.getDirection());
+            this.setSpeed(0);
+        }
+
+        // Apply rotation
+        this.setDirection(this.getNewDirection());
+        checkCollisions(board);
+        int cell = getCell();
+        damage(impacts.damage(elapsedTurns, OffsetCoord.neighborCell(cell, direction), cell,
+                OffsetCoord.neighborCell(cell, (direction + 3) % 6)));
         this.setNewDirection(-1);
     }
 
@@ -594,19 +1006,46 @@ class Ship extends Entity {
     }
 
     public MoveSequence bestPath(OffsetCoord target, Iterable<Ship> ships, Iterable<Rum> rums, Iterable<Mine> mines, Iterable<Cannonball> balls) {
-        Hashtable<ShipMoveStatus, Integer> gain = new Hashtable<>();
-        Hashtable<Ship, StatusActionPair> lastHop = new Hashtable<>();
+        return bestPath(target, ships, rums, mines, balls, null);
+    }
+
+    /**
+     * @param stats where the search records its work, null to record nothing
+     */
+    public MoveSequence bestPath(OffsetCoord target, Iterable<Ship> ships, Iterable<Rum> rums, Iterable<Mine> mines, Iterable<Cannonball> balls, PlannerStats stats) {
+        return bestPath(target, ships, rums, mines, balls, stats, 0);
+    }
+
+    /**
+     * @param deadline System.nanoTime() after which the search stops, 0 for no limit. If the deadline is reached first,
+     *                 the path to the expanded state closest to the target is returned, like PackedSearch.bestPath.
+     */
+    public MoveSequence bestPath(OffsetCoord target, Iterable<Ship> ships, Iterable<Rum> rums, Iterable<Mine> mines, Iterable<Cannonball> balls, PlannerStats stats, long deadline) {
+        long startTime = stats == null ? 0 : System.nanoTime();
+        StateTable gain = STATE_TABLE.get();
         PriorityQueue<StatusPriorityPair> frontier = new PriorityQueue<>(10);
         boolean reached = false;
+        Board board = new Board(ships, rums, mines);
+        ImpactTable impacts = new ImpactTable(balls);
 
-        gain.put(this.getMoveStatus(), 0);
-        lastHop.put(this, new StatusActionPair(this, Action.EMPTY));
+        gain.reset();
+        gain.put(this.getStateKey(), 0);
         int iniPriority = 0 - this.getCoord().distance(target);
         frontier.add(new StatusPriorityPair(this, iniPriority, 0));
 
         Ship st = this;
         StatusPriorityPair topSP = new StatusPriorityPair(this, iniPriority, 0);
+        StatusPriorityPair closest = topSP;
+        int expanded = 0;
+        int pruned = 0;
+        int peakFrontier = frontier.size();
+        boolean interrupted = false;
         while (!frontier.isEmpty()) {
+            // reading the clock every 64 expansions keeps its cost negligible
+            if (deadline != 0 && (expanded & 63) == 0 && System.nanoTime() - deadline > 0) {
+                interrupted = true;
+                break;
+            }
             // get the Ship status with highest priority
             topSP = frontier.poll();
             st = topSP.getStatus();
@@ -615,43 +1054,67 @@ class Ship extends Entity {
                 reached = true;
                 break;
             }
-            for (Action mv : Action.values()) { // iterate over all possible moves for the next turn
+            if (closer(topSP, closest, target)) {
+                closest = topSP;
+            }
+            expanded++;
+            for (Action mv : MOVES) { // iterate over all possible moves for the next turn
                 Ship nst = new Ship(st);
                 nst.damage(1); // constant cost each turn
                 nst.applyAction(mv); // update ship speed and direction based on move
-                for (Cannonball b : balls) { // update cannon ball's remaining turn by the top Ship status turn count from initial position
-                    b.setRemainingTurns(b.getInitialRemainingTurns()-topSP.getTurnCounter() - 1);
-                }
-                // in move() and rotate(), the damage related to cannon ball is calculated from remainingTurns instead of initialRemainingTurns
-                nst.move(ships, mines, rums, balls);
-                nst.rotate(ships, mines, rums, balls);
+                nst.move(board);
+                // cannon balls are timed by the turn count from initial position
+                nst.rotate(board, impacts, topSP.getTurnCounter() + 1);
                 if (nst.quant > 0) { // only continue if the remaining rum number is positive
                     int nstGain = nst.quant - this.quant; // the gain in terms of rum after move
-                    if (!gain.containsKey(nst.getMoveStatus()) || nstGain > gain.get(nst.getMoveStatus())) {
-                        gain.put(nst.getMoveStatus(), nstGain);
-                        lastHop.put(nst, new StatusActionPair(st, mv));
+                    int key = nst.getStateKey();
+                    if (!gain.contains(key) || nstGain > gain.get(key)) {
+                        gain.put(key, nstGain);
                         int priority = nstGain - nst.getCoord().distance(target);
-                        frontier.add(new StatusPriorityPair(nst, priority, topSP.getTurnCounter()+1));
+                        frontier.add(new StatusPriorityPair(nst, priority, topSP.getTurnCounter()+1, topSP, mv));
+                        peakFrontier = Math.max(peakFrontier, frontier.size());
+                    } else {
+                        pruned++;
                     }
                 }
             }
         }
+        if (stats != null) {
+            stats.recordSearch(expanded, pruned, peakFrontier, System.nanoTime() - startTime);
+        }
 
-        if (reached) {
-            int bestGain = gain.get(st.getMoveStatus());
-            List<Action> moves = new ArrayList<>();
-            while (lastHop.get(st).getAction() != Action.EMPTY) {
-                moves.add(lastHop.get(st).getAction());
-                st = lastHop.get(st).getStatus();
-            }
-            Collections.reverse(moves);
-            return new MoveSequence(bestGain, moves);
+        if (interrupted) {
+            return new MoveSequence(gainOf(closest, target), movesTo(closest));
+        } else if (reached) {
+            return new MoveSequence(gain.get(st.getStateKey()), movesTo(topSP));
         } else {
             return new MoveSequence(0, new ArrayList<Action>());
         }
     }
 
-    private void checkCollisions(final Iterable<Mine> mines, final Iterable<Rum> barrels, final Iterable<Cannonball> cannonballs, boolean checkCannonballs) {
+    private static List<Action> movesTo(StatusPriorityPair node) {
+        List<Action> moves = new ArrayList<>();
+        for (StatusPriorityPair sp = node; sp.getParent() != null; sp = sp.getParent()) {
+            moves.add(sp.getAction());
+        }
+        Collections.reverse(moves);
+        return moves;
+    }
+
+    /**
+     * @return gain of a node of bestPath, from its priority
+     */
+    private static int gainOf(StatusPriorityPair node, OffsetCoord target) {
+        return node.getPriority() + node.getStatus().getCoord().distance(target);
+    }
+
+    private static boolean closer(StatusPriorityPair node, StatusPriorityPair other, OffsetCoord target) {
+        int distance = node.getStatus().getCoord().distance(target);
+        int otherDistance = other.getStatus().getCoord().distance(target);
+        return distance < otherDistance || (distance == otherDistance && gainOf(node, target) > gainOf(other, target));
+    }
+
+    private void checkCollisions(final Iterable<Mine> mines, final Iterable<Rum> barrels, final Iterable<Cannonball> cannonballs, boolean checkCannonballs, int elapsedTurns) {
 
         List<OffsetCoord> positions = getPositions();
         // Compute potential gains
@@ -673,18 +1136,37 @@ class Ship extends Entity {
         }
 
         if (checkCannonballs) {
-            for (Iterator<Cannonball> it = cannonballs.iterator(); it.hasNext(); ) {
-                Cannonball cannonball = it.next();
-                if (1 == cannonball.getRemainingTurns()) {
-                    OffsetCoord coord = cannonball.getCoord();
-                    OffsetCoord bow = positions.get(0);
-                    OffsetCoord location = positions.get(1);
-                    OffsetCoord stern = positions.get(2);
-                    if (bow.equals(coord) || stern.equals(coord)) {
-                        this.damage(Cannonball.LOW_DAMAGE);
-                    } else if (location.equals(coord)) {
-                        this.damage(Cannonball.HIGH_DAMAGE);
-                    }
+            checkCannonballs(cannonballs, elapsedTurns);
+        }
+    }
+
+    /**
+     * same barrel and mine checks as checkCollisions, with bit tests on the board instead of scanning the entities
+     */
+    private void checkCollisions(final Board board) {
+        int cell = getCell();
+        int bow = OffsetCoord.neighborCell(cell, direction);
+        int stern = OffsetCoord.neighborCell(cell, (direction + 3) % 6);
+        if (board.hasItem(cell) || board.hasItem(bow) || board.hasItem(stern)) {
+            heal(board.getBarrelQuant(bow) + board.getBarrelQuant(cell) + board.getBarrelQuant(stern));
+            damage(Mine.MINE_DAMAGE * (board.getMineCount(bow) + board.getMineCount(cell) + board.getMineCount(stern)));
+        }
+    }
+
+    private void checkCannonballs(final Iterable<Cannonball> cannonballs, int elapsedTurns) {
+        List<OffsetCoord> positions = getPositions();
+        for (Iterator<Cannonball> it = cannonballs.iterator(); it.hasNext(); ) {
+            Cannonball cannonball = it.next();
+            int remainingTurns = elapsedTurns < 0 ? cannonball.getRemainingTurns() : cannonball.getInitialRemainingTurns() - elapsedTurns;
+            if (1 == remainingTurns) {
+                OffsetCoord coord = cannonball.getCoord();
+                OffsetCoord bow = positions.get(0);
+                OffsetCoord location = positions.get(1);
+                OffsetCoord stern = positions.get(2);
+                if (bow.equals(coord) || stern.equals(coord)) {
+                    this.damage(Cannonball.LOW_DAMAGE);
+                } else if (location.equals(coord)) {
+                    this.damage(Cannonball.HIGH_DAMAGE);
                 }
             }
         }
@@ -699,11 +1181,11 @@ class Ship extends Entity {
 
             this.setNewCoord(this.getCoord());
             // Compute new location
-            OffsetCoord newCoord = this.getCoord().neighbor(this.getDirection());
+            int newCell = OffsetCoord.neighborCell(this.getCell(), this.getDirection());
 
             // If go out of the map, then stay at old location
-            if (newCoord.isInsideMap()) {
-                this.setNewCoord(newCoord);
+            if (newCell != -1) {
+                this.setNewCoord(OffsetCoord.fromCell(newCell));
             } else {
                 this.setSpeed(0);
             }
@@ -720,15 +1202,44 @@ class Ship extends Entity {
             }
 
             this.setLocation(this.getNewCoord());
-            this.checkCollisions(mines, barrels, cannonballs, false);
+            this.checkCollisions(mines, barrels, cannonballs, false, -1);
 
             this.setNewCoord(null);
         }
     }
 
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
+    /**
+     * same as move, with ship collisions, barrels and mines read from the board
+     */
+    public void move(final Board board) {
+        for (int i = 1; i <= MAX_SHIP_SPEED; i++) {
+            if (i > this.getSpeed()) {
+                continue;
+            }
+
+            this.setNewCoord(this.getCoord());
+            int newCell = OffsetCoord.neighborCell(this.getCell(), this.getDirection());
+            if (newCell != -1) {
+                this.setNewCoord(OffsetCoord.fromCell(newCell));
+            } else {
+                this.setSpeed(0);
+            }
+            // collisions are checked at the current position, as in move
+            if (board.collides(this.getCell(), this.getDirection(), this.getId())) {
+                this.setNewCoord(getCoord());
+                this.setSpeed(0);
+            }
+
+            this.setLocation(this.getNewCoord());
+            this.checkCollisions(board);
+
+            this.setNewCoord(null);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         if (!super.equals(o)) return false;
 
@@ -765,15 +1276,2895 @@ class Ship extends Entity {
     }
 }
 
-
+
+/**
+ * Ship state packed into a single int: cell (9 bits), direction (3 bits), speed (2 bits) and rum (7 bits).
+ * The lower 14 bits, cell, direction and speed, form the kinematic part of the state.
+ */
+class ShipState {
+
+    private static final int DIRECTION_SHIFT = 9;
+    private static final int SPEED_SHIFT = 12;
+    private static final int QUANT_SHIFT = 14;
+    private static final int KINEMATIC_MASK = (1 << QUANT_SHIFT) - 1;
+    public static final int NB_KEYS = OffsetCoord.NB_CELLS * 6 * (Ship.MAX_SHIP_SPEED + 1);
+
+    public static int pack(int cell, int direction, int speed, int quant) {
+        return cell | (direction << DIRECTION_SHIFT) | (speed << SPEED_SHIFT) | (quant << QUANT_SHIFT);
+    }
+
+    public static int of(Ship ship) {
+        return pack(ship.getCell(), ship.getDirection(), ship.getSpeed(), ship.getQuant());
+    }
+
+    public static int cell(int state) {
+        return state & 0x1FF;
+    }
+
+    public static int direction(int state) {
+        return (state >>> DIRECTION_SHIFT) & 0x7;
+    }
+
+    public static int speed(int state) {
+        return (state >>> SPEED_SHIFT) & 0x3;
+    }
+
+    public static int quant(int state) {
+        return state >>> QUANT_SHIFT;
+    }
+
+    /**
+     * @return the state with its rum replaced
+     */
+    public static int withQuant(int state, int quant) {
+        return (state & KINEMATIC_MASK) | (quant << QUANT_SHIFT);
+    }
+
+    /**
+     * @return dense index in [0, NB_KEYS) of the cell, direction and speed of the state, rum is ignored
+     */
+    public static int key(int state) {
+        return (cell(state) * 6 + direction(state)) * (Ship.MAX_SHIP_SPEED + 1) + speed(state);
+    }
+}
+
+/**
+ * Obstacle free transitions of the ship states, for every cell, direction, speed and move of Ship.MOVES, computed once
+ * when the class is loaded with the rules of Ship.applyAction, move and rotate. Each transition also lists the cells
+ * the ship sweeps: if none of them holds an obstacle, a barrel or a mine, the ship ends where the table says, and
+ * PackedSearch only simulates the turn when one does.
+ */
+class Kinematics {
+
+    private static final int NB_MOVES = Ship.MOVES.length;
+    // swept cells of a transition: the bow, center and stern where the ship ends, then the other cells it crosses,
+    // -1 for no cell
+    static final int SWEPT_CELLS = 7;
+
+    // next state of each transition, with no rum
+    private static final int[] NEXT = new int[ShipState.NB_KEYS * NB_MOVES];
+    private static final short[] SWEPT = new short[ShipState.NB_KEYS * NB_MOVES * SWEPT_CELLS];
+
+    static {
+        Arrays.fill(SWEPT, (short) -1);
+        for (int cell = 0; cell < OffsetCoord.NB_CELLS; cell++) {
+            for (int direction = 0; direction < 6; direction++) {
+                for (int speed = 0; speed <= Ship.MAX_SHIP_SPEED; speed++) {
+                    int state = ShipState.pack(cell, direction, speed, 0);
+                    for (Ship.Action move : Ship.MOVES) {
+                        build(state, move);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void build(int state, Ship.Action move) {
+        int transition = transition(state, move);
+        int cell = ShipState.cell(state);
+        int direction = ShipState.direction(state);
+        int speed = ShipState.speed(state);
+        int newDirection = direction;
+        switch (move) {
+            case PORT:
+                newDirection = (direction + 1) % 6;
+                break;
+            case STARBOARD:
+                newDirection = (direction + 6 - 1) % 6;
+                break;
+            case SLOWER:
+                speed = Math.max(0, speed - 1);
+                break;
+            case FASTER:
+                speed = Math.min(Ship.MAX_SHIP_SPEED, speed + 1);
+                break;
+            default:
+                break;
+        }
+        int[] swept = new int[2 * SWEPT_CELLS];
+        int nbSwept = 0;
+        int bow = OffsetCoord.neighborCell(cell, direction);
+        int stern = OffsetCoord.neighborCell(cell, (direction + 3) % 6);
+        swept[nbSwept++] = bow;
+        swept[nbSwept++] = cell;
+        swept[nbSwept++] = stern;
+        for (int i = 1; i <= speed; i++) {
+            // the map edge stops the ship
+            if (bow == -1) {
+                speed = 0;
+            } else {
+                stern = cell;
+                cell = bow;
+                bow = OffsetCoord.neighborCell(cell, direction);
+                swept[nbSwept++] = bow;
+            }
+        }
+        if (newDirection != direction) {
+            bow = OffsetCoord.neighborCell(cell, newDirection);
+            stern = OffsetCoord.neighborCell(cell, (newDirection + 3) % 6);
+            swept[nbSwept++] = bow;
+            swept[nbSwept++] = stern;
+        }
+        NEXT[transition] = ShipState.pack(cell, newDirection, speed, 0);
+        int base = transition * SWEPT_CELLS;
+        SWEPT[base] = (short) bow;
+        SWEPT[base + 1] = (short) cell;
+        SWEPT[base + 2] = (short) stern;
+        int next = base + 3;
+        for (int i = 0; i < nbSwept; i++) {
+            int c = swept[i];
+            if (c != -1 && c != bow && c != cell && c != stern && !contains(base + 3, next, c)) {
+                SWEPT[next++] = (short) c;
+            }
+        }
+    }
+
+    private static boolean contains(int from, int to, int cell) {
+        for (int i = from; i < to; i++) {
+            if (SWEPT[i] == cell) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return index of the transition of the cell, direction and speed of the state with the move, rum is ignored
+     */
+    public static int transition(int state, Ship.Action move) {
+        return ShipState.key(state) * NB_MOVES + move.ordinal();
+    }
+
+    /**
+     * @return state after the transition, with no rum
+     */
+    public static int next(int transition) {
+        return NEXT[transition];
+    }
+
+    public static int bow(int transition) {
+        return SWEPT[transition * SWEPT_CELLS];
+    }
+
+    public static int stern(int transition) {
+        return SWEPT[transition * SWEPT_CELLS + 2];
+    }
+
+    /**
+     * @return true if the ship sweeps one of the cells during the transition
+     */
+    public static boolean sweeps(int transition, CellSet cells) {
+        int base = transition * SWEPT_CELLS;
+        for (int i = base; i < base + SWEPT_CELLS; i++) {
+            if (cells.contains(SWEPT[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * one turn of the ship on an empty sea, it loses one rum
+     */
+    public static int step(int state, Ship.Action move) {
+        return ShipState.withQuant(NEXT[transition(state, move)], Math.max(0, ShipState.quant(state) - 1));
+    }
+}
+
+/**
+ * Shortest lines of moves of a ship at speed 0 to the cells around it on an empty sea, the opening plans of the ships
+ * at their spawn. Moving and turning do not depend on where the ship is nor where it points, so a line is stored once
+ * for each target relative to the ship pointing in direction 0, with the target within RADIUS of the ship.
+ * TABLE is written by OpeningBookGenerator: the lines of the targets in the order of index, separated by commas, each
+ * move being the digit of its Ship.Action ordinal. A line ignores the map edges and the entities, replay it in the
+ * current world before following it.
+ */
+class OpeningBook {
+
+    static final int RADIUS = 7;
+    static final int SIZE = 3 * RADIUS * (RADIUS + 1) + 1;
+
+    static final String TABLE = "2202023,2202020,330300,330302,330033,330030,303030,303032,2202003,2"
+            + "22000,222002,330300,303300,303302,33003,33000,303002,220200,220202,222000,222003,3303"
+            + "0,222020,33002,33000,30303,30300,220203,220200,220203,22200,220220,33030,30330,3300,3"
+            + "0302,30300,30302,220022,202200,22020,220223,22200,22202,3303,3300,30332,3030,03300,30"
+            + "033,220020,202203,202200,22020,22022,2220,3302,330,3033,3030,03300,03302,30030,202020"
+            + ",22002,22003,20220,2202,2203,,2,302,303,0330,3002,3003,03030,202023,22000,22000,2200,"
+            + "2200,220,3,,3,30,300,300,3000,3000,03032,202003,20202,20203,20223,2022,203,2,,02,033,"
+            + "0332,0302,0303,03002,20200,20200,2020,2020,202,20,03,0,03,030,030,0300,0300,20203,022"
+            + "00,02200,0220,200,022,02,00,032,0323,0303,0302,20022,02203,2003,200,0223,020,023,00,0"
+            + "02,0032,0033,20020,2002,2000,0203,020,0232,003,000,003,0030,02020,2000,0202,0200,0202"
+            + ",0023,002,000,0002,02023,02003,0200,0203,0022,0020,0003,0000";
+
+    // cubic offset of the target of each line, for the ship pointing in direction 0
+    private static final int[] DX = new int[SIZE];
+    private static final int[] DZ = new int[SIZE];
+    private static final int[][] INDEX = new int[2 * RADIUS + 1][2 * RADIUS + 1];
+    private static final List<List<Ship.Action>> LINES = new ArrayList<>(SIZE);
+
+    static {
+        int next = 0;
+        for (int dx = -RADIUS; dx <= RADIUS; dx++) {
+            Arrays.fill(INDEX[dx + RADIUS], -1);
+            for (int dz = Math.max(-RADIUS, -dx - RADIUS); dz <= Math.min(RADIUS, -dx + RADIUS); dz++) {
+                DX[next] = dx;
+                DZ[next] = dz;
+                INDEX[dx + RADIUS][dz + RADIUS] = next++;
+            }
+        }
+        String[] lines = TABLE.split(",", -1);
+        for (int i = 0; i < SIZE; i++) {
+            List<Ship.Action> line = new ArrayList<>();
+            if (i < lines.length) {
+                for (char move : lines[i].toCharArray()) {
+                    line.add(Ship.Action.values()[move - '0']);
+                }
+            }
+            LINES.add(Collections.unmodifiableList(line));
+        }
+    }
+
+    /**
+     * @return index of the line to the target at the cubic offset from the ship pointing in direction 0, -1 if the
+     * target is farther than RADIUS
+     */
+    public static int index(int dx, int dz) {
+        if (Math.abs(dx) > RADIUS || Math.abs(dz) > RADIUS || Math.abs(dx + dz) > RADIUS) {
+            return -1;
+        }
+        return INDEX[dx + RADIUS][dz + RADIUS];
+    }
+
+    public static int getDx(int index) {
+        return DX[index];
+    }
+
+    public static int getDz(int index) {
+        return DZ[index];
+    }
+
+    /**
+     * @param state  packed state of the ship, see ShipState
+     * @param target cell of the target
+     * @return moves of the shortest line from the state to a state of the ship over the target, null if the ship is
+     * moving or the target is out of the book
+     */
+    public static List<Ship.Action> line(int state, int target) {
+        if (ShipState.speed(state) != 0) {
+            return null;
+        }
+        CubicCoord ship = OffsetCoord.fromCell(ShipState.cell(state)).toCubic();
+        CubicCoord cubic = OffsetCoord.fromCell(target).toCubic();
+        int dx = cubic.getX() - ship.getX();
+        int dy = cubic.getY() - ship.getY();
+        int dz = cubic.getZ() - ship.getZ();
+        // rotate the offset like a ship turning to starboard, until the ship points in direction 0
+        for (int i = 0; i < ShipState.direction(state); i++) {
+            int x = dx;
+            dx = -dz;
+            dz = -dy;
+            dy = -x;
+        }
+        int index = index(dx, dz);
+        return index == -1 ? null : LINES.get(index);
+    }
+}
+
+/**
+ * Best gain reached for each kinematic key (see ShipState.key) during one search.
+ * Entries are stamped with a generation, so reset() invalidates the whole table in O(1).
+ */
+class StateTable {
+
+    private final int[] gain = new int[ShipState.NB_KEYS];
+    private final int[] generation = new int[ShipState.NB_KEYS];
+    private int current = 0;
+
+    public void reset() {
+        current++;
+        if (current == Integer.MAX_VALUE) {
+            Arrays.fill(generation, 0);
+            current = 1;
+        }
+    }
+
+    public boolean contains(int key) {
+        return generation[key] == current;
+    }
+
+    /**
+     * @return gain stored for the key, Integer.MIN_VALUE if the key was not reached in this search
+     */
+    public int get(int key) {
+        return generation[key] == current ? gain[key] : Integer.MIN_VALUE;
+    }
+
+    public void put(int key, int value) {
+        generation[key] = current;
+        gain[key] = value;
+    }
+}
+
+/**
+ * Counters and histograms of the work of the planners, to see where the turn time goes and compare planner variants.
+ * Searches record their totals once at the end with atomic adds, so recording allocates nothing and is safe from the
+ * threads planning ships or targets concurrently. Histograms have power of two buckets.
+ */
+class PlannerStats {
+
+    static class Histogram {
+
+        // bucket b holds the values in [2^(b-1), 2^b), bucket 0 the zeros
+        private static final int BUCKETS = 64;
+
+        private final String name;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        Histogram(String name) {
+            this.name = name;
+        }
+
+        public void record(long value) {
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            long previous = max.get();
+            while (value > previous && !max.compareAndSet(previous, value)) {
+                previous = max.get();
+            }
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getSum() {
+            return sum.get();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * @return upper bound of the bucket holding the given fraction of the values, 0 if there are none
+         */
+        public long getPercentile(double fraction) {
+            long rank = (long) Math.ceil(fraction * count.get());
+            long seen = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                seen += buckets.get(b);
+                if (seen >= rank && seen > 0) {
+                    return b == 0 ? 0 : (1L << b) - 1;
+                }
+            }
+            return 0;
+        }
+
+        void reset() {
+            for (int b = 0; b < BUCKETS; b++) {
+                buckets.set(b, 0);
+            }
+            count.set(0);
+            sum.set(0);
+            max.set(0);
+        }
+
+        void dump(PrintStream out) {
+            long n = count.get();
+            out.printf("%s: count %d, mean %.1f, p50 <= %d, p99 <= %d, max %d%n", name, n, n == 0 ? 0.0 : (double) sum.get() / n,
+                    getPercentile(0.5), getPercentile(0.99), max.get());
+        }
+    }
+
+    private final AtomicLong turns = new AtomicLong();
+    private final AtomicLong searches = new AtomicLong();
+    private final AtomicLong expanded = new AtomicLong();
+    private final AtomicLong pruned = new AtomicLong();
+    private final AtomicLong peakFrontier = new AtomicLong();
+    private final AtomicLong warmUpTurns = new AtomicLong();
+    private final AtomicLong warmUpTime = new AtomicLong();
+    private final Histogram searchNodes = new Histogram("nodes expanded per search");
+    private final Histogram searchFrontier = new Histogram("peak frontier per search");
+    private final Histogram searchTime = new Histogram("time per target search (ns)");
+    private final Histogram shipTime = new Histogram("time per ship (ns)");
+    private final Histogram turnSearches = new Histogram("searches per turn");
+    private final Histogram turnTime = new Histogram("time per turn (ns)");
+
+    /**
+     * @param expanded nodes taken from the frontier and expanded
+     * @param pruned   successors dropped because a node with the same kinematic key had at least the same gain
+     * @param frontier largest number of nodes waiting in the frontier
+     * @param time     duration of the search in nanoseconds
+     */
+    public void recordSearch(int expanded, int pruned, int frontier, long time) {
+        searches.incrementAndGet();
+        this.expanded.addAndGet(expanded);
+        this.pruned.addAndGet(pruned);
+        long previous = peakFrontier.get();
+        while (frontier > previous && !peakFrontier.compareAndSet(previous, frontier)) {
+            previous = peakFrontier.get();
+        }
+        searchNodes.record(expanded);
+        searchFrontier.record(frontier);
+        searchTime.record(time);
+    }
+
+    public void recordShip(long time) {
+        shipTime.record(time);
+    }
+
+    /**
+     * @param turns turns planned by Player.warmUp
+     * @param time  duration of the warm-up in nanoseconds
+     */
+    public void recordWarmUp(int turns, long time) {
+        warmUpTurns.addAndGet(turns);
+        warmUpTime.addAndGet(time);
+    }
+
+    public long getWarmUpTurns() {
+        return warmUpTurns.get();
+    }
+
+    /**
+     * @param searches searches of the turn, from getSearches before and after it
+     */
+    public void recordTurn(long searches, long time) {
+        turns.incrementAndGet();
+        turnSearches.record(searches);
+        turnTime.record(time);
+    }
+
+    public long getTurns() {
+        return turns.get();
+    }
+
+    public long getSearches() {
+        return searches.get();
+    }
+
+    public long getExpanded() {
+        return expanded.get();
+    }
+
+    public long getPruned() {
+        return pruned.get();
+    }
+
+    public long getPeakFrontier() {
+        return peakFrontier.get();
+    }
+
+    public void reset() {
+        turns.set(0);
+        searches.set(0);
+        expanded.set(0);
+        pruned.set(0);
+        peakFrontier.set(0);
+        warmUpTurns.set(0);
+        warmUpTime.set(0);
+        for (Histogram histogram : new Histogram[]{searchNodes, searchFrontier, searchTime, shipTime, turnSearches, turnTime}) {
+            histogram.reset();
+        }
+    }
+
+    public void dump(PrintStream out) {
+        out.printf("turns %d, searches %d, nodes expanded %d, pruned by gain %d, peak frontier %d%n", turns.get(),
+                searches.get(), expanded.get(), pruned.get(), peakFrontier.get());
+        if (warmUpTurns.get() > 0) {
+            out.printf("warm-up turns %d in %.1f ms%n", warmUpTurns.get(), warmUpTime.get() / 1e6);
+        }
+        for (Histogram histogram : new Histogram[]{turnTime, turnSearches, shipTime, searchTime, searchNodes, searchFrontier}) {
+            histogram.dump(out);
+        }
+        out.flush();
+    }
+}
+
+/**
+ * Allocation free version of Ship.bestPath working on packed ship states.
+ * The world (other ships, barrels, mines and cannonballs) is given once with setWorld, as a Board and cell indexed
+ * arrays, then every bestPath call only reads and writes primitive arrays that are reused across searches.
+ * Search nodes are kept in an arena of parallel arrays, the frontier is a binary heap of node indices that orders
+ * nodes exactly like the PriorityQueue of Ship.bestPath, so both searches return the same moves.
+ */
+class PackedSearch {
+
+    private static final Ship.Action[] ACTIONS = Ship.MOVES;
+    private static final int INITIAL_CAPACITY = 1024;
+    public static final int MULTI_TARGET_HORIZON = 12;
+    // with a horizon, priorities are (gain - turns left) * TIE_BREAK + TIE_BREAK - 1 - turns left, so that on equal
+    // bound the node closest to the target comes first. turnsTo is below TIE_BREAK on the map.
+    private static final int TIE_BREAK = 64;
+
+    // world, the cells blocked by other ships and the cells with items are copied from the board for fast access
+    private Board board;
+    private final CellSet blocked = new CellSet();
+    private final CellSet items = new CellSet();
+    // cells blocked after each number of turns, all the same set when the ships are static obstacles
+    private final CellSet[] blockedAt = new CellSet[MotionPredictor.MAX_TURNS + 1];
+    private final CellSet[] predictedBlocked = new CellSet[MotionPredictor.MAX_TURNS + 1];
+    // obstacles and items after each number of turns, where the table of Kinematics does not apply
+    private final CellSet[] hazardsAt = new CellSet[MotionPredictor.MAX_TURNS + 1];
+    private ImpactTable impacts;
+
+    // best gain found for each kinematic key
+    private final StateTable gain = new StateTable();
+
+    // node arena
+    private int[] nodeState = new int[INITIAL_CAPACITY];
+    private int[] nodeParent = new int[INITIAL_CAPACITY];
+    private int[] nodeAction = new int[INITIAL_CAPACITY];
+    private int[] nodeTurn = new int[INITIAL_CAPACITY];
+    private int[] nodePriority = new int[INITIAL_CAPACITY];
+    private int nbNodes;
+
+    // frontier
+    private int[] heap = new int[INITIAL_CAPACITY];
+    private int heapSize;
+
+    // reachability field of expand: turn each kinematic key is first reached, and for each cell the fewest turns
+    // and the node of the highest gain with the ship over it, -1 if the cell is not reached
+    private final StateTable keyTurns = new StateTable();
+    private final int[] cellTurns = new int[OffsetCoord.NB_CELLS];
+    private final int[] cellNode = new int[OffsetCoord.NB_CELLS];
+    private final int[] cellGain = new int[OffsetCoord.NB_CELLS];
+
+    // System.nanoTime() after which searches stop and return what they found, 0 for no limit
+    private long deadline = 0;
+    private boolean interrupted;
+    private PlannerStats stats = null;
+    // longest path of bestPath in turns, 0 for the unbounded search of Ship.bestPath
+    private int horizon = 0;
+
+    public PackedSearch() {
+        Arrays.fill(cellNode, -1);
+        for (int turn = 0; turn < predictedBlocked.length; turn++) {
+            predictedBlocked[turn] = new CellSet();
+            hazardsAt[turn] = new CellSet();
+        }
+    }
+
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * @param horizon 0 for the search of Ship.bestPath, otherwise bestPath only looks for paths of at most horizon
+     *                turns and orders the nodes by their gain minus a lower bound of the turns left, see turnsTo.
+     *                A target out of reach within the horizon then costs a bounded search instead of the whole
+     *                reachable state space.
+     */
+    public void setHorizon(int horizon) {
+        this.horizon = horizon;
+    }
+
+    /**
+     * @param stats where each search records its work, null to record nothing
+     */
+    public void setStats(PlannerStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * @return true if the last search was stopped by the deadline
+     */
+    public boolean isInterrupted() {
+        return interrupted;
+    }
+
+    /**
+     * @return number of nodes generated by the last search
+     */
+    public int getNodeCount() {
+        return nbNodes;
+    }
+
+    private boolean timeUp(int expanded) {
+        // reading the clock every 64 expansions keeps its cost negligible
+        if (deadline != 0 && (expanded & 63) == 0 && System.nanoTime() - deadline > 0) {
+            interrupted = true;
+        }
+        return interrupted;
+    }
+
+    public void setWorld(Ship ship, Iterable<Ship> ships, Iterable<Rum> rums, Iterable<Mine> mines, Iterable<Cannonball> balls) {
+        setWorld(ship, new Board(ships, rums, mines), new ImpactTable(balls));
+    }
+
+    /**
+     * plan for the given ship in the world of the board and the impact table, which are only read and can be shared
+     * between searches. The ships of the board are static obstacles.
+     */
+    public void setWorld(Ship ship, Board board, ImpactTable impacts) {
+        setWorld(ship, board, impacts, null);
+    }
+
+    /**
+     * @param motion ships seen as obstacles where they are predicted at each turn, null to use the ships of the board
+     */
+    public void setWorld(Ship ship, Board board, ImpactTable impacts, MotionPredictor motion) {
+        this.board = board;
+        this.impacts = impacts;
+        if (motion == null) {
+            blocked.clear();
+            for (int cell = 0; cell < OffsetCoord.NB_CELLS; cell++) {
+                if (board.hasShip(cell, ship.getId())) {
+                    blocked.add(cell);
+                }
+            }
+            Arrays.fill(blockedAt, blocked);
+        } else {
+            for (int turn = 0; turn < blockedAt.length; turn++) {
+                predictedBlocked[turn].clear();
+                motion.addOccupied(turn, ship.getId(), predictedBlocked[turn]);
+                blockedAt[turn] = predictedBlocked[turn];
+            }
+        }
+        items.clear();
+        items.addAll(board.getItemCells());
+        for (int turn = 0; turn < hazardsAt.length; turn++) {
+            hazardsAt[turn].clear();
+            hazardsAt[turn].addAll(blockedAt[turn]);
+            hazardsAt[turn].addAll(items);
+        }
+    }
+
+    public MoveSequence bestPath(Ship ship, OffsetCoord target) {
+        return bestPath(ShipState.of(ship), target.toCell());
+    }
+
+    /**
+     * same search as Ship.bestPath, from a packed start state to the target cell.
+     * If the deadline is reached first, the path to the expanded state closest to the target is returned.
+     */
+    public MoveSequence bestPath(int start, int target) {
+        long startTime = stats == null ? 0 : System.nanoTime();
+        gain.reset();
+        nbNodes = 0;
+        heapSize = 0;
+        interrupted = false;
+
+        int startQuant = ShipState.quant(start);
+        gain.put(ShipState.key(start), 0);
+        push(addNode(start, -1, Ship.Action.EMPTY.ordinal(), 0, priority(0, start, target)));
+
+        int top = -1;
+        int closest = 0;
+        int expanded = 0;
+        int pruned = 0;
+        int peakFrontier = heapSize;
+        boolean reached = false;
+        while (heapSize > 0) {
+            if (timeUp(expanded)) {
+                record(startTime, expanded, pruned, peakFrontier);
+                return new MoveSequence(gainOf(closest, target), movesTo(closest));
+            }
+            top = poll();
+            int st = nodeState[top];
+            if (overlap(st, target)) {
+                reached = true;
+                break;
+            }
+            if (closer(top, closest, target)) {
+                closest = top;
+            }
+            expanded++;
+            int turn = nodeTurn[top];
+            for (Ship.Action mv : ACTIONS) {
+                int nst = step(st, mv, turn);
+                int quant = ShipState.quant(nst);
+                if (horizon != 0 && turn + 1 + turnsTo(nst, target) > horizon) {
+                    continue; // the target is out of reach from this state
+                }
+                if (quant > 0) {
+                    int nstGain = quant - startQuant;
+                    int key = ShipState.key(nst);
+                    if (nstGain > gain.get(key)) {
+                        gain.put(key, nstGain);
+                        push(addNode(nst, top, mv.ordinal(), turn + 1, priority(nstGain, nst, target)));
+                        peakFrontier = Math.max(peakFrontier, heapSize);
+                    } else {
+                        pruned++;
+                    }
+                }
+            }
+        }
+
+        record(startTime, expanded, pruned, peakFrontier);
+        if (reached) {
+            return new MoveSequence(gain.get(ShipState.key(nodeState[top])), movesTo(top));
+        } else {
+            return new MoveSequence(0, new ArrayList<Ship.Action>());
+        }
+    }
+
+    private boolean closer(int node, int other, int target) {
+        int distance = distance(nodeState[node], target);
+        int otherDistance = distance(nodeState[other], target);
+        return distance < otherDistance || (distance == otherDistance && gainOf(node, target) > gainOf(other, target));
+    }
+
+    private int priority(int gain, int state, int target) {
+        if (horizon == 0) {
+            return gain - distance(state, target);
+        }
+        int turns = turnsTo(state, target);
+        return (gain - turns) * TIE_BREAK + TIE_BREAK - 1 - turns;
+    }
+
+    /**
+     * @return gain of a node of bestPath, from its priority
+     */
+    private int gainOf(int node, int target) {
+        if (horizon == 0) {
+            return nodePriority[node] + distance(nodeState[node], target);
+        }
+        return Math.floorDiv(nodePriority[node], TIE_BREAK) + turnsTo(nodeState[node], target);
+    }
+
+    public List<MoveSequence> bestPaths(Ship ship, List<OffsetCoord> targets) {
+        return bestPaths(ShipState.of(ship), targets);
+    }
+
+    /**
+     * score all targets with a single expansion of the ship states up to MULTI_TARGET_HORIZON turns, see expand.
+     * A target is reached when it overlaps the ship, its path is the one with the highest gain, the earliest on ties.
+     * If the deadline is reached first, the targets reached so far keep their paths.
+     *
+     * @return one MoveSequence per target, in the same order, gain 0 and no moves if the target is not reached
+     */
+    public List<MoveSequence> bestPaths(int start, List<OffsetCoord> targets) {
+        expand(start, MULTI_TARGET_HORIZON);
+        List<MoveSequence> paths = new ArrayList<>(targets.size());
+        for (OffsetCoord target : targets) {
+            paths.add(getPath(target.toCell()));
+        }
+        return paths;
+    }
+
+    public void expand(Ship ship) {
+        expand(ShipState.of(ship), MULTI_TARGET_HORIZON);
+    }
+
+    /**
+     * Compute the reachability field of the ship with a breadth first expansion of its states, up to the given number
+     * of turns. The turns and the gain to reach any cell or any kinematic state are then table reads, until the next
+     * search of this PackedSearch. If the deadline is reached first, the field holds the states expanded so far.
+     */
+    public void expand(int start, int turns) {
+        long startTime = stats == null ? 0 : System.nanoTime();
+        gain.reset();
+        keyTurns.reset();
+        Arrays.fill(cellNode, -1);
+        Arrays.fill(cellTurns, -1);
+        nbNodes = 0;
+        interrupted = false;
+        int startQuant = ShipState.quant(start);
+        gain.put(ShipState.key(start), 0);
+        keyTurns.put(ShipState.key(start), 0);
+        reach(addNode(start, -1, Ship.Action.EMPTY.ordinal(), 0, 0), 0);
+
+        // nodes are appended in breadth first order, so the arena is also the queue,
+        // and their priority holds their gain
+        int expanded = 0;
+        int pruned = 0;
+        int peakFrontier = nbNodes;
+        for (int node = 0; node < nbNodes && !timeUp(node); node++) {
+            int st = nodeState[node];
+            int turn = nodeTurn[node];
+            if (turn >= turns || nodePriority[node] < gain.get(ShipState.key(st))) {
+                continue; // too far, or a better node for the same key was found since
+            }
+            expanded++;
+            peakFrontier = Math.max(peakFrontier, nbNodes - node);
+            for (Ship.Action mv : ACTIONS) {
+                int nst = step(st, mv, turn);
+                int quant = ShipState.quant(nst);
+                if (quant > 0) {
+                    int nstGain = quant - startQuant;
+                    int key = ShipState.key(nst);
+                    if (nstGain > gain.get(key)) {
+                        gain.put(key, nstGain);
+                        if (!keyTurns.contains(key)) {
+                            keyTurns.put(key, turn + 1);
+                        }
+                        reach(addNode(nst, node, mv.ordinal(), turn + 1, nstGain), nstGain);
+                    } else {
+                        pruned++;
+                    }
+                }
+            }
+        }
+        record(startTime, expanded, pruned, peakFrontier);
+    }
+
+    /**
+     * @return fewest turns of the last expand before the ship overlaps the cell, -1 if it is not reached
+     */
+    public int getTurns(int cell) {
+        return cell == -1 ? -1 : cellTurns[cell];
+    }
+
+    /**
+     * @return highest gain of the last expand with the ship over the cell, Integer.MIN_VALUE if it is not reached
+     */
+    public int getGain(int cell) {
+        return cell == -1 || cellNode[cell] == -1 ? Integer.MIN_VALUE : cellGain[cell];
+    }
+
+    /**
+     * @return path of the last expand to the highest gain over the cell, gain 0 and no moves if it is not reached
+     */
+    public MoveSequence getPath(int cell) {
+        if (cell == -1 || cellNode[cell] == -1) {
+            return new MoveSequence(0, new ArrayList<Ship.Action>());
+        }
+        return new MoveSequence(cellGain[cell], movesTo(cellNode[cell]));
+    }
+
+    /**
+     * @param key kinematic key of a ship state, see ShipState.key
+     * @return fewest turns of the last expand to the cell, direction and speed of the key, -1 if it is not reached
+     */
+    public int getStateTurns(int key) {
+        return keyTurns.contains(key) ? keyTurns.get(key) : -1;
+    }
+
+    /**
+     * @return highest gain of the last expand in the state of the key, Integer.MIN_VALUE if it is not reached
+     */
+    public int getStateGain(int key) {
+        return keyTurns.contains(key) ? gain.get(key) : Integer.MIN_VALUE;
+    }
+
+    private void record(long startTime, int expanded, int pruned, int peakFrontier) {
+        if (stats != null) {
+            stats.recordSearch(expanded, pruned, peakFrontier, System.nanoTime() - startTime);
+        }
+    }
+
+    private void reach(int node, int nodeGain) {
+        int cell = ShipState.cell(nodeState[node]);
+        int direction = ShipState.direction(nodeState[node]);
+        reach(node, nodeGain, cell);
+        reach(node, nodeGain, OffsetCoord.neighborCell(cell, direction));
+        reach(node, nodeGain, OffsetCoord.neighborCell(cell, (direction + 3) % 6));
+    }
+
+    private void reach(int node, int nodeGain, int cell) {
+        if (cell == -1) {
+            return;
+        }
+        if (cellNode[cell] == -1) {
+            cellTurns[cell] = nodeTurn[node];
+        }
+        if (cellNode[cell] == -1 || nodeGain > cellGain[cell]) {
+            cellNode[cell] = node;
+            cellGain[cell] = nodeGain;
+        }
+    }
+
+    private List<Ship.Action> movesTo(int node) {
+        List<Ship.Action> moves = new ArrayList<>();
+        for (; nodeParent[node] != -1; node = nodeParent[node]) {
+            moves.add(ACTIONS[nodeAction[node]]);
+        }
+        Collections.reverse(moves);
+        return moves;
+    }
+
+    /**
+     * simulate one turn of the ship, same rules as Ship.applyAction, move and rotate
+     *
+     * @param turn turn counter of the state before the action, used for cannonball timing
+     */
+    int step(int state, Ship.Action mv, int turn) {
+        int transition = Kinematics.transition(state, mv);
+        // ships are where they are predicted after the move
+        if (Kinematics.sweeps(transition, hazardsAt[Math.min(turn + 1, MotionPredictor.MAX_TURNS)])) {
+            return collide(state, mv, turn);
+        }
+        int next = Kinematics.next(transition);
+        int quant = Math.max(0, ShipState.quant(state) - 1); // constant cost each turn
+        quant = Math.max(0, quant - impacts.damage(turn + 1, Kinematics.bow(transition), ShipState.cell(next), Kinematics.stern(transition)));
+        return ShipState.withQuant(next, quant);
+    }
+
+    /**
+     * step of a ship that meets an obstacle, a barrel or a mine on its way
+     */
+    private int collide(int state, Ship.Action mv, int turn) {
+        int cell = ShipState.cell(state);
+        int direction = ShipState.direction(state);
+        int speed = ShipState.speed(state);
+        int quant = Math.max(0, ShipState.quant(state) - 1); // constant cost each turn
+        int newDirection = direction;
+        switch (mv) {
+            case PORT:
+                newDirection = (direction + 1) % 6;
+                break;
+            case STARBOARD:
+                newDirection = (direction + 6 - 1) % 6;
+                break;
+            case SLOWER:
+                speed = Math.max(0, speed - 1);
+                break;
+            case FASTER:
+                speed = Math.min(Ship.MAX_SHIP_SPEED, speed + 1);
+                break;
+            default:
+                break;
+        }
+        // ships are where they are predicted after the move
+        CellSet obstacles = blockedAt[Math.min(turn + 1, MotionPredictor.MAX_TURNS)];
+        // move, the cells of the bow and the stern are tracked to avoid neighbor lookups
+        int bow = OffsetCoord.neighborCell(cell, direction);
+        int stern = OffsetCoord.neighborCell(cell, (direction + 3) % 6);
+        for (int i = 1; i <= Ship.MAX_SHIP_SPEED; i++) {
+            if (i > speed) {
+                continue;
+            }
+            // the ship moves to its bow cell
+            if (bow == -1 || collides(obstacles, bow, cell, stern)) {
+                speed = 0;
+            } else {
+                stern = cell;
+                cell = bow;
+                bow = OffsetCoord.neighborCell(cell, direction);
+            }
+            quant = pickUp(bow, cell, stern, quant);
+        }
+        // rotate
+        if (newDirection != direction) {
+            int newBow = OffsetCoord.neighborCell(cell, newDirection);
+            int newStern = OffsetCoord.neighborCell(cell, (newDirection + 3) % 6);
+            if (collides(obstacles, newBow, cell, newStern)) {
+                newDirection = direction;
+                speed = 0;
+            } else {
+                bow = newBow;
+                stern = newStern;
+            }
+        } else if (collides(obstacles, bow, cell, stern)) {
+            speed = 0;
+        }
+        direction = newDirection;
+        quant = pickUp(bow, cell, stern, quant);
+        // same timing as the elapsed turns given to Ship.rotate by Ship.bestPath
+        quant = Math.max(0, quant - impacts.damage(turn + 1, bow, cell, stern));
+        return ShipState.pack(cell, direction, speed, quant);
+    }
+
+    private static boolean collides(CellSet obstacles, int bow, int cell, int stern) {
+        return obstacles.contains(cell) || obstacles.contains(bow) || obstacles.contains(stern);
+    }
+
+    private int pickUp(int bow, int cell, int stern, int quant) {
+        if (!items.contains(cell) && !items.contains(bow) && !items.contains(stern)) {
+            return quant;
+        }
+        int heal = board.getBarrelQuant(cell) + board.getBarrelQuant(bow) + board.getBarrelQuant(stern);
+        int mines = board.getMineCount(cell) + board.getMineCount(bow) + board.getMineCount(stern);
+        quant = Math.min(Ship.MAX_SHIP_QUANT, quant + heal);
+        return Math.max(0, quant - mines * Mine.MINE_DAMAGE);
+    }
+
+    /**
+     * replay the moves from the start state in the current world
+     *
+     * @return the packed state after the last move, -1 if the ship runs out of rum on the way
+     */
+    public int simulate(int start, List<Ship.Action> moves) {
+        int state = start;
+        int turn = 0;
+        for (Ship.Action mv : moves) {
+            state = step(state, mv, turn++);
+            if (ShipState.quant(state) == 0) {
+                return -1;
+            }
+        }
+        return state;
+    }
+
+    public static boolean overlap(int state, int target) {
+        if (target == -1) {
+            return false;
+        }
+        int cell = ShipState.cell(state);
+        int direction = ShipState.direction(state);
+        return cell == target || OffsetCoord.neighborCell(cell, direction) == target
+                || OffsetCoord.neighborCell(cell, (direction + 3) % 6) == target;
+    }
+
+    private static int distance(int state, int target) {
+        if (target == -1) {
+            return 0;
+        }
+        return OffsetCoord.cellDistance(ShipState.cell(state), target);
+    }
+
+    /**
+     * Lower bound of the turns before the ship overlaps the target. Its center has to come within one cell of the
+     * target, at most two cells per turn and one on the first turn from a stop. When the target is behind, the first
+     * turn cannot bring the ship closer, since moving forward takes its center away and it turns after moving.
+     * Each turn costs one rum, so gain - turnsTo overestimates the gain at the target unless barrels are picked up.
+     */
+    static int turnsTo(int state, int target) {
+        int cell = ShipState.cell(state);
+        int left = distance(state, target) - 1;
+        if (left <= 0) {
+            return 0;
+        }
+        int bow = OffsetCoord.neighborCell(cell, ShipState.direction(state));
+        if (bow != -1 && OffsetCoord.cellDistance(bow, target) > left + 1) {
+            return 1 + (left + 1) / 2;
+        }
+        return ShipState.speed(state) == 0 ? (left + 2) / 2 : (left + 1) / 2;
+    }
+
+    private int addNode(int state, int parent, int action, int turn, int priority) {
+        if (nbNodes == nodeState.length) {
+            int capacity = nbNodes * 2;
+            nodeState = Arrays.copyOf(nodeState, capacity);
+            nodeParent = Arrays.copyOf(nodeParent, capacity);
+            nodeAction = Arrays.copyOf(nodeAction, capacity);
+            nodeTurn = Arrays.copyOf(nodeTurn, capacity);
+            nodePriority = Arrays.copyOf(nodePriority, capacity);
+        }
+        nodeState[nbNodes] = state;
+        nodeParent[nbNodes] = parent;
+        nodeAction[nbNodes] = action;
+        nodeTurn[nbNodes] = turn;
+        nodePriority[nbNodes] = priority;
+        return nbNodes++;
+    }
+
+    // heap operations follow java.util.PriorityQueue so that ties are broken in the same order
+
+    private void push(int node) {
+        if (heapSize == heap.length) {
+            heap = Arrays.copyOf(heap, heapSize * 2);
+        }
+        int k = heapSize++;
+        int priority = nodePriority[node];
+        while (k > 0) {
+            int parent = (k - 1) >>> 1;
+            int e = heap[parent];
+            if (priority <= nodePriority[e]) {
+                break;
+            }
+            heap[k] = e;
+            k = parent;
+        }
+        heap[k] = node;
+    }
+
+    private int poll() {
+        int result = heap[0];
+        int n = --heapSize;
+        if (n > 0) {
+            int x = heap[n];
+            int priority = nodePriority[x];
+            int k = 0;
+            int half = n >>> 1;
+            while (k < half) {
+                int child = (k << 1) + 1;
+                int c = heap[child];
+                int right = child + 1;
+                if (right < n && nodePriority[c] < nodePriority[heap[right]]) {
+                    c = heap[child = right];
+                }
+                if (priority >= nodePriority[c]) {
+                    break;
+                }
+                heap[k] = c;
+                k = child;
+            }
+            heap[k] = x;
+        }
+        return result;
+    }
+}
+
+/**
+ * Allocation free game state stepped one full turn at a time with the rules of Referee.updateGame: rum decay,
+ * cannonball flights, FIRE and MINE actions with their cooldowns, ship moves and rotations with collisions, barrel
+ * pickups, mine explosions, damage near mines and reward barrels of sunk ships. Used for rollouts of whole games.
+ * <p>
+ * Cells are indexed on the map padded by one cell on each side, so that the bow and stern of ships on the border,
+ * which the referee compares and measures like any other coordinate, have an index too. Ships are kept in the order
+ * of the referee, the ships of player 0 first, as the order decides which ship picks up a shared barrel.
+ * MOVE commands are not simulated, they have to be turned into actions first.
+ */
+class GameState {
+
+    public static final int MAX_SHIPS = 6;
+    public static final int MAX_SHIP_SPEED = 2;
+    public static final int COOLDOWN_CANNON = 2;
+    public static final int COOLDOWN_MINE = 5;
+    public static final int FIRE_DISTANCE_MAX = 10;
+    public static final int REWARD_RUM_BARREL_VALUE = 30;
+
+    // padded map, cell = (row + 1) * PADDED_WIDTH + col + 1
+    private static final int PADDED_WIDTH = OffsetCoord.MAP_WIDTH + 2;
+    private static final int PADDED_HEIGHT = OffsetCoord.MAP_HEIGHT + 2;
+    public static final int NB_PADDED_CELLS = PADDED_WIDTH * PADDED_HEIGHT;
+    private static final int BITBOARD_LENGTH = (NB_PADDED_CELLS + 63) / 64;
+    // neighbor cell of each cell and orientation, -1 outside the padded map
+    private static final int[] NEIGHBORS = new int[NB_PADDED_CELLS * 6];
+    private static final boolean[] INSIDE = new boolean[NB_PADDED_CELLS];
+    private static final int[] CUBE_X = new int[NB_PADDED_CELLS];
+    private static final int[] CUBE_Z = new int[NB_PADDED_CELLS];
+
+    static {
+        for (int cell = 0; cell < NB_PADDED_CELLS; cell++) {
+            OffsetCoord coord = new OffsetCoord(col(cell), row(cell));
+            INSIDE[cell] = coord.isInsideMap();
+            CubicCoord cubic = coord.toCubic();
+            CUBE_X[cell] = cubic.getX();
+            CUBE_Z[cell] = cubic.getZ();
+            for (int orientation = 0; orientation < 6; orientation++) {
+                OffsetCoord n = coord.neighbor(orientation);
+                NEIGHBORS[cell * 6 + orientation] = isOnPaddedMap(n.getCol(), n.getRow()) ? cell(n.getCol(), n.getRow()) : -1;
+            }
+        }
+    }
+
+    // ships, alive ones are those the referee keeps in its ship lists, dead ships are removed at the end of the turn
+    private int nbShips;
+    private final int[] shipId = new int[MAX_SHIPS];
+    private final int[] shipOwner = new int[MAX_SHIPS];
+    private final int[] shipCell = new int[MAX_SHIPS];
+    private final int[] shipDirection = new int[MAX_SHIPS];
+    private final int[] shipSpeed = new int[MAX_SHIPS];
+    private final int[] shipHealth = new int[MAX_SHIPS];
+    private final int[] shipMineCooldown = new int[MAX_SHIPS];
+    private final int[] shipCannonCooldown = new int[MAX_SHIPS];
+    private final boolean[] shipAlive = new boolean[MAX_SHIPS];
+    // action of the turn, EMPTY to wait, and the target cell for FIRE, -1 if the ship does not fire
+    private final Ship.Action[] shipAction = new Ship.Action[MAX_SHIPS];
+    private final int[] shipFireTarget = new int[MAX_SHIPS];
+
+    private int nbBarrels;
+    private int[] barrelCell = new int[32];
+    private int[] barrelHealth = new int[32];
+    private final long[] barrelBits = new long[BITBOARD_LENGTH];
+
+    private int nbMines;
+    private int[] mineCell = new int[32];
+    private final long[] mineBits = new long[BITBOARD_LENGTH];
+
+    private int nbBalls;
+    private int[] ballCell = new int[16];
+    private int[] ballOwner = new int[16];
+    private int[] ballTurns = new int[16];
+
+    // scratch space of step
+    private final int[] newCell = new int[MAX_SHIPS];
+    private final int[] newBow = new int[MAX_SHIPS];
+    private final int[] newStern = new int[MAX_SHIPS];
+    private final int[] newDirection = new int[MAX_SHIPS];
+    private final boolean[] collisions = new boolean[MAX_SHIPS];
+    // ships found sunk by each collision check, a ship can be listed several times like in the referee
+    private final int[] lost = new int[3 * MAX_SHIPS];
+    private int nbLost;
+    private int[] explosions = new int[16];
+    private int nbExplosions;
+    private final long[] shipBits = new long[BITBOARD_LENGTH];
+
+    private static boolean isOnPaddedMap(int col, int row) {
+        return col >= -1 && col <= OffsetCoord.MAP_WIDTH && row >= -1 && row <= OffsetCoord.MAP_HEIGHT;
+    }
+
+    public static int cell(int col, int row) {
+        return (row + 1) * PADDED_WIDTH + col + 1;
+    }
+
+    public static int col(int cell) {
+        return cell % PADDED_WIDTH - 1;
+    }
+
+    public static int row(int cell) {
+        return cell / PADDED_WIDTH - 1;
+    }
+
+    public static int neighbor(int cell, int orientation) {
+        return NEIGHBORS[cell * 6 + orientation];
+    }
+
+    public static boolean isInsideMap(int cell) {
+        return cell != -1 && INSIDE[cell];
+    }
+
+    public static int distance(int cell, int other) {
+        int dx = CUBE_X[cell] - CUBE_X[other];
+        int dz = CUBE_Z[cell] - CUBE_Z[other];
+        return (Math.abs(dx) + Math.abs(dz) + Math.abs(dx + dz)) / 2;
+    }
+
+    private static void set(long[] bits, int cell) {
+        bits[cell >>> 6] |= 1L << cell;
+    }
+
+    private static void unset(long[] bits, int cell) {
+        bits[cell >>> 6] &= ~(1L << cell);
+    }
+
+    private static boolean test(long[] bits, int cell) {
+        return (bits[cell >>> 6] & (1L << cell)) != 0;
+    }
+
+    public void clear() {
+        nbShips = 0;
+        nbBarrels = 0;
+        nbMines = 0;
+        nbBalls = 0;
+        Arrays.fill(barrelBits, 0);
+        Arrays.fill(mineBits, 0);
+    }
+
+    /**
+     * copy the other state into this one, without allocating once the arrays are large enough
+     */
+    public void copyFrom(GameState other) {
+        nbShips = other.nbShips;
+        System.arraycopy(other.shipId, 0, shipId, 0, nbShips);
+        System.arraycopy(other.shipOwner, 0, shipOwner, 0, nbShips);
+        System.arraycopy(other.shipCell, 0, shipCell, 0, nbShips);
+        System.arraycopy(other.shipDirection, 0, shipDirection, 0, nbShips);
+        System.arraycopy(other.shipSpeed, 0, shipSpeed, 0, nbShips);
+        System.arraycopy(other.shipHealth, 0, shipHealth, 0, nbShips);
+        System.arraycopy(other.shipMineCooldown, 0, shipMineCooldown, 0, nbShips);
+        System.arraycopy(other.shipCannonCooldown, 0, shipCannonCooldown, 0, nbShips);
+        System.arraycopy(other.shipAlive, 0, shipAlive, 0, nbShips);
+        System.arraycopy(other.shipAction, 0, shipAction, 0, nbShips);
+        System.arraycopy(other.shipFireTarget, 0, shipFireTarget, 0, nbShips);
+
+        nbBarrels = other.nbBarrels;
+        if (barrelCell.length < nbBarrels) {
+            barrelCell = new int[other.barrelCell.length];
+            barrelHealth = new int[other.barrelCell.length];
+        }
+        System.arraycopy(other.barrelCell, 0, barrelCell, 0, nbBarrels);
+        System.arraycopy(other.barrelHealth, 0, barrelHealth, 0, nbBarrels);
+        System.arraycopy(other.barrelBits, 0, barrelBits, 0, BITBOARD_LENGTH);
+
+        nbMines = other.nbMines;
+        if (mineCell.length < nbMines) {
+            mineCell = new int[other.mineCell.length];
+        }
+        System.arraycopy(other.mineCell, 0, mineCell, 0, nbMines);
+        System.arraycopy(other.mineBits, 0, mineBits, 0, BITBOARD_LENGTH);
+
+        nbBalls = other.nbBalls;
+        if (ballCell.length < nbBalls) {
+            ballCell = new int[other.ballCell.length];
+            ballOwner = new int[other.ballCell.length];
+            ballTurns = new int[other.ballCell.length];
+        }
+        System.arraycopy(other.ballCell, 0, ballCell, 0, nbBalls);
+        System.arraycopy(other.ballOwner, 0, ballOwner, 0, nbBalls);
+        System.arraycopy(other.ballTurns, 0, ballTurns, 0, nbBalls);
+    }
+
+    /**
+     * @return index of the ship in the state
+     */
+    public int addShip(int id, int owner, int col, int row, int direction, int speed, int health, int mineCooldown, int cannonCooldown) {
+        int ship = nbShips++;
+        shipId[ship] = id;
+        shipOwner[ship] = owner;
+        shipCell[ship] = cell(col, row);
+        shipDirection[ship] = direction;
+        shipSpeed[ship] = speed;
+        shipHealth[ship] = health;
+        shipMineCooldown[ship] = mineCooldown;
+        shipCannonCooldown[ship] = cannonCooldown;
+        shipAlive[ship] = true;
+        shipAction[ship] = Ship.Action.EMPTY;
+        shipFireTarget[ship] = -1;
+        return ship;
+    }
+
+    public void addBarrel(int col, int row, int health) {
+        addBarrelAt(cell(col, row), health);
+    }
+
+    private void addBarrelAt(int cell, int health) {
+        if (nbBarrels == barrelCell.length) {
+            barrelCell = Arrays.copyOf(barrelCell, nbBarrels * 2);
+            barrelHealth = Arrays.copyOf(barrelHealth, nbBarrels * 2);
+        }
+        barrelCell[nbBarrels] = cell;
+        barrelHealth[nbBarrels] = health;
+        nbBarrels++;
+        set(barrelBits, cell);
+    }
+
+    public void addMine(int col, int row) {
+        addMineAt(cell(col, row));
+    }
+
+    private void addMineAt(int cell) {
+        if (nbMines == mineCell.length) {
+            mineCell = Arrays.copyOf(mineCell, nbMines * 2);
+        }
+        mineCell[nbMines++] = cell;
+        set(mineBits, cell);
+    }
+
+    public void addCannonball(int col, int row, int owner, int remainingTurns) {
+        addCannonballAt(cell(col, row), owner, remainingTurns);
+    }
+
+    private void addCannonballAt(int cell, int owner, int remainingTurns) {
+        if (nbBalls == ballCell.length) {
+            ballCell = Arrays.copyOf(ballCell, nbBalls * 2);
+            ballOwner = Arrays.copyOf(ballOwner, nbBalls * 2);
+            ballTurns = Arrays.copyOf(ballTurns, nbBalls * 2);
+        }
+        ballCell[nbBalls] = cell;
+        ballOwner[nbBalls] = owner;
+        ballTurns[nbBalls] = remainingTurns;
+        nbBalls++;
+    }
+
+    /**
+     * @param action action of the ship for the next step, EMPTY to wait, FIRE without a target waits too, see setFire
+     */
+    public void setAction(int ship, Ship.Action action) {
+        shipAction[ship] = action;
+        shipFireTarget[ship] = -1;
+    }
+
+    /**
+     * fire at the given coordinates during the next step, instead of the action
+     */
+    public void setFire(int ship, int col, int row) {
+        shipAction[ship] = Ship.Action.FIRE;
+        shipFireTarget[ship] = isOnPaddedMap(col, row) ? cell(col, row) : -1;
+    }
+
+    public int getShipCount() {
+        return nbShips;
+    }
+
+    public int getShipId(int ship) {
+        return shipId[ship];
+    }
+
+    public int getShipOwner(int ship) {
+        return shipOwner[ship];
+    }
+
+    public boolean isAlive(int ship) {
+        return shipAlive[ship];
+    }
+
+    public int getShipCell(int ship) {
+        return shipCell[ship];
+    }
+
+    public int getShipDirection(int ship) {
+        return shipDirection[ship];
+    }
+
+    public int getShipBow(int ship) {
+        return bow(ship);
+    }
+
+    public int getShipStern(int ship) {
+        return stern(ship);
+    }
+
+    public int getShipSpeed(int ship) {
+        return shipSpeed[ship];
+    }
+
+    public int getShipHealth(int ship) {
+        return shipHealth[ship];
+    }
+
+    public int getMineCooldown(int ship) {
+        return shipMineCooldown[ship];
+    }
+
+    public int getCannonCooldown(int ship) {
+        return shipCannonCooldown[ship];
+    }
+
+    public int getBarrelCount() {
+        return nbBarrels;
+    }
+
+    public int getBarrelCell(int barrel) {
+        return barrelCell[barrel];
+    }
+
+    public int getBarrelHealth(int barrel) {
+        return barrelHealth[barrel];
+    }
+
+    public int getMineCount() {
+        return nbMines;
+    }
+
+    public int getMineCell(int mine) {
+        return mineCell[mine];
+    }
+
+    public int getCannonballCount() {
+        return nbBalls;
+    }
+
+    public int getCannonballCell(int ball) {
+        return ballCell[ball];
+    }
+
+    public int getCannonballTurns(int ball) {
+        return ballTurns[ball];
+    }
+
+    /**
+     * @return total rum of the ships of the owner, dead ones count for 0, the score of the referee
+     */
+    public int getScore(int owner) {
+        int score = 0;
+        for (int ship = 0; ship < nbShips; ship++) {
+            if (shipOwner[ship] == owner && shipAlive[ship]) {
+                score += shipHealth[ship];
+            }
+        }
+        return score;
+    }
+
+    /**
+     * @return true if the owner has at least one ship alive
+     */
+    public boolean hasShips(int owner) {
+        for (int ship = 0; ship < nbShips; ship++) {
+            if (shipOwner[ship] == owner && shipAlive[ship]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int bow(int ship) {
+        return neighbor(shipCell[ship], shipDirection[ship]);
+    }
+
+    private int stern(int ship) {
+        return neighbor(shipCell[ship], (shipDirection[ship] + 3) % 6);
+    }
+
+    private boolean at(int ship, int cell) {
+        return shipCell[ship] == cell || bow(ship) == cell || stern(ship) == cell;
+    }
+
+    private void damage(int ship, int damage) {
+        shipHealth[ship] = Math.max(0, shipHealth[ship] - damage);
+    }
+
+    private void heal(int ship, int heal) {
+        shipHealth[ship] = Math.min(Ship.MAX_SHIP_QUANT, shipHealth[ship] + heal);
+    }
+
+    /**
+     * play one turn with the actions set for the ships, then reset the actions to wait
+     *
+     * @return true if a player has no ship left
+     */
+    public boolean step() {
+        moveCannonballs();
+        for (int ship = 0; ship < nbShips; ship++) {
+            if (shipAlive[ship]) {
+                damage(ship, 1);
+            }
+        }
+        nbLost = 0;
+        applyActions();
+        moveShips();
+        rotateShips();
+
+        explodeShips();
+        explodeMines();
+        explodeBarrels();
+
+        for (int i = 0; i < nbLost; i++) {
+            addBarrelAt(shipCell[lost[i]], REWARD_RUM_BARREL_VALUE);
+        }
+        for (int ship = 0; ship < nbShips; ship++) {
+            if (shipHealth[ship] <= 0) {
+                shipAlive[ship] = false;
+            }
+            shipAction[ship] = Ship.Action.EMPTY;
+            shipFireTarget[ship] = -1;
+        }
+        return !hasShips(0) || !hasShips(1);
+    }
+
+    private void moveCannonballs() {
+        nbExplosions = 0;
+        int kept = 0;
+        for (int i = 0; i < nbBalls; i++) {
+            if (ballTurns[i] == 0) {
+                continue;
+            } else if (ballTurns[i] > 0) {
+                ballTurns[i]--;
+            }
+            if (ballTurns[i] == 0) {
+                if (nbExplosions == explosions.length) {
+                    explosions = Arrays.copyOf(explosions, nbExplosions * 2);
+                }
+                explosions[nbExplosions++] = ballCell[i];
+            }
+            ballCell[kept] = ballCell[i];
+            ballOwner[kept] = ballOwner[i];
+            ballTurns[kept] = ballTurns[i];
+            kept++;
+        }
+        nbBalls = kept;
+    }
+
+    private void applyActions() {
+        for (int ship = 0; ship < nbShips; ship++) {
+            if (!shipAlive[ship]) {
+                continue;
+            }
+            if (shipMineCooldown[ship] > 0) {
+                shipMineCooldown[ship]--;
+            }
+            if (shipCannonCooldown[ship] > 0) {
+                shipCannonCooldown[ship]--;
+            }
+            newDirection[ship] = shipDirection[ship];
+            if (shipFireTarget[ship] != -1) {
+                fire(ship, shipFireTarget[ship]);
+                continue;
+            }
+            switch (shipAction[ship]) {
+                case FASTER:
+                    if (shipSpeed[ship] < MAX_SHIP_SPEED) {
+                        shipSpeed[ship]++;
+                    }
+                    break;
+                case SLOWER:
+                    if (shipSpeed[ship] > 0) {
+                        shipSpeed[ship]--;
+                    }
+                    break;
+                case PORT:
+                    newDirection[ship] = (shipDirection[ship] + 1) % 6;
+                    break;
+                case STARBOARD:
+                    newDirection[ship] = (shipDirection[ship] + 5) % 6;
+                    break;
+                case MINE:
+                    placeMine(ship);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private void placeMine(int ship) {
+        int target = mineTarget(ship);
+        if (shipMineCooldown[ship] != 0 || target == -1) {
+            return;
+        }
+        shipMineCooldown[ship] = COOLDOWN_MINE;
+        addMineAt(target);
+    }
+
+    /**
+     * @return cell behind the stern where the ship would drop a mine, -1 if it is outside the map or holds a barrel or
+     * another ship, the cooldown is not checked
+     */
+    public int mineTarget(int ship) {
+        int stern = stern(ship);
+        int target = stern == -1 ? -1 : neighbor(stern, (shipDirection[ship] + 3) % 6);
+        if (!isInsideMap(target) || test(barrelBits, target)) {
+            return -1;
+        }
+        for (int other = 0; other < nbShips; other++) {
+            if (other != ship && shipAlive[other] && at(other, target)) {
+                return -1;
+            }
+        }
+        return target;
+    }
+
+    private void fire(int ship, int target) {
+        int distance = distance(bow(ship), target);
+        if (isInsideMap(target) && distance <= FIRE_DISTANCE_MAX && shipCannonCooldown[ship] == 0) {
+            // 1 + round(distance / 3.0)
+            addCannonballAt(target, shipId[ship], 1 + (distance + 1) / 3);
+            shipCannonCooldown[ship] = COOLDOWN_CANNON;
+        }
+    }
+
+    /**
+     * pick up the barrels under the ship and explode the mines touched by any ship, like Referee.checkCollisions
+     */
+    private void checkCollisions(int ship) {
+        int bow = bow(ship);
+        int stern = stern(ship);
+        int cell = shipCell[ship];
+        if (test(barrelBits, cell) || bow != -1 && test(barrelBits, bow) || stern != -1 && test(barrelBits, stern)) {
+            int kept = 0;
+            for (int i = 0; i < nbBarrels; i++) {
+                int b = barrelCell[i];
+                if (b == bow || b == stern || b == cell) {
+                    heal(ship, barrelHealth[i]);
+                    unset(barrelBits, b);
+                } else {
+                    barrelCell[kept] = b;
+                    barrelHealth[kept] = barrelHealth[i];
+                    kept++;
+                }
+            }
+            nbBarrels = kept;
+        }
+
+        // mines touched by the other ships exploded when those ships moved, only the cells of this ship can be new
+        if (!test(mineBits, cell) && (bow == -1 || !test(mineBits, bow)) && (stern == -1 || !test(mineBits, stern))) {
+            if (shipHealth[ship] <= 0) {
+                lost[nbLost++] = ship;
+            }
+            return;
+        }
+        Arrays.fill(shipBits, 0);
+        for (int other = 0; other < nbShips; other++) {
+            if (shipAlive[other]) {
+                set(shipBits, shipCell[other]);
+                int b = bow(other);
+                int s = stern(other);
+                if (b != -1) {
+                    set(shipBits, b);
+                }
+                if (s != -1) {
+                    set(shipBits, s);
+                }
+            }
+        }
+        int kept = 0;
+        for (int i = 0; i < nbMines; i++) {
+            if (!test(shipBits, mineCell[i]) || !explode(mineCell[i], false)) {
+                mineCell[kept++] = mineCell[i];
+            }
+        }
+        nbMines = kept;
+        rebuildMineBits();
+        if (shipHealth[ship] <= 0) {
+            lost[nbLost++] = ship;
+        }
+    }
+
+    private void rebuildMineBits() {
+        Arrays.fill(mineBits, 0);
+        for (int i = 0; i < nbMines; i++) {
+            set(mineBits, mineCell[i]);
+        }
+    }
+
+    /**
+     * same as Referee.Mine.explode
+     *
+     * @return true if the mine exploded
+     */
+    private boolean explode(int mine, boolean force) {
+        int victim = -1;
+        for (int ship = 0; ship < nbShips; ship++) {
+            if (shipAlive[ship] && at(ship, mine)) {
+                damage(ship, Mine.MINE_DAMAGE);
+                victim = ship;
+            }
+        }
+        if (!force && victim == -1) {
+            return false;
+        }
+        for (int ship = 0; ship < nbShips; ship++) {
+            if (ship != victim && shipAlive[ship]) {
+                int bow = bow(ship);
+                int stern = stern(ship);
+                if (distance(shipCell[ship], mine) <= 1 || bow != -1 && distance(bow, mine) <= 1 || stern != -1 && distance(stern, mine) <= 1) {
+                    damage(ship, Mine.NEAR_MINE_DAMAGE);
+                }
+            }
+        }
+        return true;
+    }
+
+    private void moveShips() {
+        for (int step = 1; step <= MAX_SHIP_SPEED; step++) {
+            for (int ship = 0; ship < nbShips; ship++) {
+                if (!shipAlive[ship]) {
+                    continue;
+                }
+                newCell[ship] = shipCell[ship];
+                newBow[ship] = bow(ship);
+                newStern[ship] = stern(ship);
+                if (step > shipSpeed[ship]) {
+                    continue;
+                }
+                int next = neighbor(shipCell[ship], shipDirection[ship]);
+                if (isInsideMap(next)) {
+                    newCell[ship] = next;
+                    newBow[ship] = neighbor(next, shipDirection[ship]);
+                    newStern[ship] = neighbor(next, (shipDirection[ship] + 3) % 6);
+                } else {
+                    shipSpeed[ship] = 0;
+                }
+            }
+
+            // ships whose bow runs into another ship go back and stop, until no bow collides. The referee loops until
+            // no ship collides, here until no ship goes back, which ends the same way but also when ships were given
+            // overlapping, a state the referee never reaches but input states may hold
+            boolean collisionDetected = true;
+            while (collisionDetected) {
+                collisionDetected = false;
+                for (int ship = 0; ship < nbShips; ship++) {
+                    collisions[ship] = shipAlive[ship] && newBowIntersects(ship);
+                }
+                for (int ship = 0; ship < nbShips; ship++) {
+                    if (collisions[ship]) {
+                        collisionDetected |= newCell[ship] != shipCell[ship];
+                        newCell[ship] = shipCell[ship];
+                        newBow[ship] = bow(ship);
+                        newStern[ship] = stern(ship);
+                        shipSpeed[ship] = 0;
+                    }
+                }
+            }
+
+            for (int ship = 0; ship < nbShips; ship++) {
+                if (shipAlive[ship]) {
+                    shipCell[ship] = newCell[ship];
+                    checkCollisions(ship);
+                }
+            }
+        }
+    }
+
+    private boolean newBowIntersects(int ship) {
+        int bow = newBow[ship];
+        for (int other = 0; other < nbShips; other++) {
+            if (other != ship && shipAlive[other] && bow != -1
+                    && (bow == newBow[other] || bow == newCell[other] || bow == newStern[other])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean newPositionsIntersect(int ship) {
+        for (int other = 0; other < nbShips; other++) {
+            if (other != ship && shipAlive[other]) {
+                if (intersects(newBow[ship], other) || intersects(newCell[ship], other) || intersects(newStern[ship], other)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean intersects(int cell, int other) {
+        return cell != -1 && (cell == newBow[other] || cell == newCell[other] || cell == newStern[other]);
+    }
+
+    private void rotateShips() {
+        for (int ship = 0; ship < nbShips; ship++) {
+            if (shipAlive[ship]) {
+                newCell[ship] = shipCell[ship];
+                newBow[ship] = neighbor(shipCell[ship], newDirection[ship]);
+                newStern[ship] = neighbor(shipCell[ship], (newDirection[ship] + 3) % 6);
+            }
+        }
+
+        // ships overlapping another ship after rotation keep their direction and stop, until no ship turns back
+        boolean collisionDetected = true;
+        while (collisionDetected) {
+            collisionDetected = false;
+            for (int ship = 0; ship < nbShips; ship++) {
+                collisions[ship] = shipAlive[ship] && newPositionsIntersect(ship);
+            }
+            for (int ship = 0; ship < nbShips; ship++) {
+                if (collisions[ship]) {
+                    collisionDetected |= newDirection[ship] != shipDirection[ship];
+                    newDirection[ship] = shipDirection[ship];
+                    newBow[ship] = neighbor(shipCell[ship], newDirection[ship]);
+                    newStern[ship] = neighbor(shipCell[ship], (newDirection[ship] + 3) % 6);
+                    shipSpeed[ship] = 0;
+                }
+            }
+        }
+
+        for (int ship = 0; ship < nbShips; ship++) {
+            if (shipAlive[ship] && shipHealth[ship] != 0) {
+                shipDirection[ship] = newDirection[ship];
+                checkCollisions(ship);
+            }
+        }
+    }
+
+    private void explodeShips() {
+        int kept = 0;
+        for (int i = 0; i < nbExplosions; i++) {
+            int cell = explosions[i];
+            boolean hit = false;
+            for (int ship = 0; ship < nbShips && !hit; ship++) {
+                if (!shipAlive[ship]) {
+                    continue;
+                }
+                if (cell == bow(ship) || cell == stern(ship)) {
+                    damage(ship, Cannonball.LOW_DAMAGE);
+                    hit = true;
+                } else if (cell == shipCell[ship]) {
+                    damage(ship, Cannonball.HIGH_DAMAGE);
+                    hit = true;
+                }
+            }
+            if (!hit) {
+                explosions[kept++] = cell;
+            }
+        }
+        nbExplosions = kept;
+    }
+
+    private void explodeMines() {
+        int kept = 0;
+        for (int i = 0; i < nbExplosions; i++) {
+            int cell = explosions[i];
+            int mine = -1;
+            if (test(mineBits, cell)) {
+                for (int m = 0; m < nbMines && mine == -1; m++) {
+                    if (mineCell[m] == cell) {
+                        mine = m;
+                    }
+                }
+            }
+            if (mine == -1) {
+                explosions[kept++] = cell;
+            } else {
+                explode(cell, true);
+                mineCell[mine] = mineCell[--nbMines];
+                rebuildMineBits();
+            }
+        }
+        nbExplosions = kept;
+    }
+
+    private void explodeBarrels() {
+        for (int i = 0; i < nbExplosions; i++) {
+            int cell = explosions[i];
+            if (!test(barrelBits, cell)) {
+                continue;
+            }
+            for (int b = 0; b < nbBarrels; b++) {
+                if (barrelCell[b] == cell) {
+                    System.arraycopy(barrelCell, b + 1, barrelCell, b, nbBarrels - b - 1);
+                    System.arraycopy(barrelHealth, b + 1, barrelHealth, b, nbBarrels - b - 1);
+                    nbBarrels--;
+                    break;
+                }
+            }
+            boolean remaining = false;
+            for (int b = 0; b < nbBarrels && !remaining; b++) {
+                remaining = barrelCell[b] == cell;
+            }
+            if (!remaining) {
+                unset(barrelBits, cell);
+            }
+        }
+    }
+}
+
+/**
+ * Aims the cannons at the cells where ships are expected when the cannonball explodes.
+ * Ships are predicted by GameState rollouts where all of them play one action then keep their course. A target is
+ * scored by the damage it deals to enemy ships in each prediction, weighted by how likely the prediction is, minus the
+ * damage it deals to our ships if they keep their course.
+ * A ball fired from the bow explodes after the ship moves of the turn of the shot and of the 1 + round(distance / 3)
+ * next turns. These flight times are precomputed for all pairs of cells in range, so that checking a predicted ship
+ * cell against the shooter costs one table lookup.
+ */
+class Gunnery {
+
+    // ship moves before a ball fired at the longest range explodes
+    public static final int MAX_FLIGHT = 2 + (GameState.FIRE_DISTANCE_MAX + 1) / 3;
+    // shots expected to deal less damage are not worth giving up the move
+    public static final double MIN_EXPECTED_DAMAGE = 20;
+    private static final Ship.Action[] PREDICTED = {Ship.Action.EMPTY, Ship.Action.FASTER, Ship.Action.SLOWER,
+            Ship.Action.PORT, Ship.Action.STARBOARD};
+    // ships keep their course more often than they play any other action
+    private static final int[] PREDICTED_WEIGHTS = {4, 1, 1, 1, 1};
+    private static final int TOTAL_WEIGHT = 8;
+    // ship moves before a ball fired from a bow cell explodes on a target cell, 0 if the target is out of range
+    private static final byte[] FLIGHT = new byte[GameState.NB_PADDED_CELLS * GameState.NB_PADDED_CELLS];
+
+    static {
+        for (int bow = 0; bow < GameState.NB_PADDED_CELLS; bow++) {
+            for (int target = 0; target < GameState.NB_PADDED_CELLS; target++) {
+                int distance = GameState.distance(bow, target);
+                if (GameState.isInsideMap(target) && distance <= GameState.FIRE_DISTANCE_MAX) {
+                    FLIGHT[bow * GameState.NB_PADDED_CELLS + target] = (byte) (2 + (distance + 1) / 3);
+                }
+            }
+        }
+    }
+
+    // center, bow and stern cells of each ship after each number of moves of each prediction, -1 once sunk
+    private final int[] predicted = new int[PREDICTED.length * (MAX_FLIGHT + 1) * GameState.MAX_SHIPS * 3];
+    private final GameState rollout = new GameState();
+    // expected damage of the cells scored by aim
+    private final double[] expected = new double[GameState.NB_PADDED_CELLS];
+    private final int[] candidates = new int[GameState.NB_PADDED_CELLS];
+    private int nbCandidates;
+    private double expectedDamage;
+
+    /**
+     * @return ship moves before a ball fired from the bow cell explodes on the target cell, 0 if it cannot be fired
+     */
+    public static int flight(int bow, int target) {
+        return FLIGHT[bow * GameState.NB_PADDED_CELLS + target];
+    }
+
+    private static int index(int prediction, int moves, int ship) {
+        return ((prediction * (MAX_FLIGHT + 1) + moves) * GameState.MAX_SHIPS + ship) * 3;
+    }
+
+    /**
+     * predict the cells of all ships of the state, to be done once per turn before aiming
+     */
+    public void predict(GameState state) {
+        for (int prediction = 0; prediction < PREDICTED.length; prediction++) {
+            rollout.copyFrom(state);
+            for (int ship = 0; ship < rollout.getShipCount(); ship++) {
+                rollout.setAction(ship, PREDICTED[prediction]);
+            }
+            for (int moves = 1; moves <= MAX_FLIGHT; moves++) {
+                rollout.step();
+                for (int ship = 0; ship < rollout.getShipCount(); ship++) {
+                    int i = index(prediction, moves, ship);
+                    boolean alive = rollout.isAlive(ship);
+                    predicted[i] = alive ? rollout.getShipCell(ship) : -1;
+                    predicted[i + 1] = alive ? rollout.getShipBow(ship) : -1;
+                    predicted[i + 2] = alive ? rollout.getShipStern(ship) : -1;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param state the state given to the last predict
+     * @param ship  index of the shooter in the state
+     * @return cell of the state to fire at, -1 if the cannon is not ready or no shot is expected to deal enough damage
+     */
+    public int aim(GameState state, int ship) {
+        expectedDamage = 0;
+        // the cooldown is decremented before the ship fires
+        if (!state.isAlive(ship) || state.getCannonCooldown(ship) > 1) {
+            return -1;
+        }
+        int bow = state.getShipBow(ship);
+        int owner = state.getShipOwner(ship);
+        nbCandidates = 0;
+        for (int prediction = 0; prediction < PREDICTED.length; prediction++) {
+            for (int other = 0; other < state.getShipCount(); other++) {
+                boolean enemy = state.getShipOwner(other) != owner;
+                // our ships, the shooter included, are expected to keep their course
+                if (!enemy && prediction != 0) {
+                    continue;
+                }
+                double weight = enemy ? (double) PREDICTED_WEIGHTS[prediction] / TOTAL_WEIGHT : -1;
+                for (int moves = 1; moves <= MAX_FLIGHT; moves++) {
+                    int i = index(prediction, moves, other);
+                    if (predicted[i] == -1) {
+                        break;
+                    }
+                    for (int part = 0; part < 3; part++) {
+                        int cell = predicted[i + part];
+                        if (cell != -1 && flight(bow, cell) == moves) {
+                            score(cell, weight * (part == 0 ? Cannonball.HIGH_DAMAGE : Cannonball.LOW_DAMAGE));
+                        }
+                    }
+                }
+            }
+        }
+        int target = -1;
+        for (int c = 0; c < nbCandidates; c++) {
+            int cell = candidates[c];
+            if (expected[cell] >= MIN_EXPECTED_DAMAGE && expected[cell] > expectedDamage) {
+                expectedDamage = expected[cell];
+                target = cell;
+            }
+            expected[cell] = 0;
+        }
+        if (target == -1) {
+            expectedDamage = 0;
+        }
+        return target;
+    }
+
+    private void score(int cell, double damage) {
+        if (expected[cell] == 0) {
+            candidates[nbCandidates++] = cell;
+        }
+        expected[cell] += damage;
+    }
+
+    /**
+     * @return expected damage of the target of the last aim, 0 if there was none
+     */
+    public double getExpectedDamage() {
+        return expectedDamage;
+    }
+}
+
+/**
+ * Rolling horizon evolution over joint action sequences of all our ships.
+ * An individual holds one action per ship and per turn of the horizon, it is scored by playing it in a GameState
+ * rollout against enemy ships that keep their speed and direction, then the population evolves by tournament
+ * selection, uniform crossover and mutation until the deadline or the evaluation limit. The best sequence of a turn,
+ * shifted by one turn, seeds the population of the next turn.
+ * A ship given a target can FIRE at it on the first turn of the horizon, where its rollout plays the shot.
+ */
+class EvolutionPlanner {
+
+    public static final int DEFAULT_POPULATION_SIZE = 16;
+    public static final int DEFAULT_HORIZON = 8;
+    // evaluations per turn when there is no deadline, so that plans without time limit stay reproducible
+    public static final int DEFAULT_MAX_EVALUATIONS = 2000;
+    // FIRE comes last, it is only drawn for the first turn of ships with a target
+    private static final Ship.Action[] GENES = {Ship.Action.EMPTY, Ship.Action.FASTER, Ship.Action.SLOWER, Ship.Action.PORT,
+            Ship.Action.STARBOARD, Ship.Action.MINE, Ship.Action.FIRE};
+    private static final double ENEMY_RUM_WEIGHT = 0.5;
+    private static final double SUNK_PENALTY = 150;
+    private static final double BARREL_DISTANCE_WEIGHT = 1;
+    // picking up a barrel is worth at least 10 rum, more than the pull towards the next barrel it removes
+    private static final int MAX_BARREL_DISTANCE = 10;
+
+    private int populationSize = DEFAULT_POPULATION_SIZE;
+    private int horizon = DEFAULT_HORIZON;
+    private int maxEvaluations = DEFAULT_MAX_EVALUATIONS;
+    private final Random random = new Random(0);
+
+    // population, genes[individual][turn * nbShips + ship] are indexes in GENES
+    private int[][] genes = new int[0][];
+    private double[] fitness = new double[0];
+    private int[] child = new int[0];
+    private int[] previousBest = null;
+    private int previousShips = 0;
+    // cell of the state each ship can fire at on the first turn, -1 if it does not fire
+    private int[] fireTargets = new int[0];
+    private final GameState rollout = new GameState();
+    private int evaluations;
+
+    public void setPopulationSize(int populationSize) {
+        this.populationSize = Math.max(2, populationSize);
+    }
+
+    public void setHorizon(int horizon) {
+        this.horizon = Math.max(1, horizon);
+    }
+
+    /**
+     * @param maxEvaluations rollouts per turn without deadline, the deadline stops the search earlier when set
+     */
+    public void setMaxEvaluations(int maxEvaluations) {
+        this.maxEvaluations = maxEvaluations;
+    }
+
+    /**
+     * @return number of rollouts of the last plan
+     */
+    public int getEvaluations() {
+        return evaluations;
+    }
+
+    /**
+     * plan without firing
+     */
+    public Ship.Action[] plan(GameState root, int[] ourShips, int owner, long deadline) {
+        return plan(root, ourShips, null, owner, deadline);
+    }
+
+    /**
+     * @param root        state of the turn
+     * @param ourShips    indexes of our ships in the state, in the order of the commands
+     * @param fireTargets cell of the state each of our ships can fire at this turn, -1 if it does not fire, see Gunnery.aim
+     * @param owner       owner of our ships in the state
+     * @param deadline    System.nanoTime() after which the search stops, 0 for no limit
+     * @return the first action of the best joint sequence, one per ship, FIRE meaning a shot at the target of the ship
+     */
+    public Ship.Action[] plan(GameState root, int[] ourShips, int[] fireTargets, int owner, long deadline) {
+        int nbShips = ourShips.length;
+        int length = horizon * nbShips;
+        if (fireTargets == null) {
+            this.fireTargets = new int[nbShips];
+            Arrays.fill(this.fireTargets, -1);
+        } else {
+            this.fireTargets = fireTargets;
+        }
+        if (genes.length != populationSize || child.length != length) {
+            genes = new int[populationSize][length];
+            fitness = new double[populationSize];
+            child = new int[length];
+        }
+        for (int i = 0; i < populationSize; i++) {
+            if (i == 0 && previousBest != null && previousShips == nbShips && previousBest.length == length) {
+                // the plan of the previous turn, one turn later, waiting at the end
+                System.arraycopy(previousBest, nbShips, genes[i], 0, length - nbShips);
+                Arrays.fill(genes[i], length - nbShips, length, 0);
+            } else if (i == 1) {
+                // keep the current course
+                Arrays.fill(genes[i], 0);
+            } else {
+                for (int g = 0; g < length; g++) {
+                    genes[i][g] = randomGene(g);
+                }
+            }
+            fitness[i] = evaluate(root, genes[i], ourShips, owner);
+        }
+        evaluations = populationSize;
+
+        while (evaluations < maxEvaluations || deadline != 0) {
+            if (deadline != 0 && (evaluations & 15) == 0 && System.nanoTime() - deadline > 0) {
+                break;
+            }
+            int[] first = genes[tournament()];
+            int[] second = genes[tournament()];
+            for (int g = 0; g < length; g++) {
+                child[g] = random.nextBoolean() ? first[g] : second[g];
+            }
+            // mutate one gene, and each other one with a low probability
+            int mutated = random.nextInt(length);
+            child[mutated] = randomGene(mutated);
+            for (int g = 0; g < length; g++) {
+                if (random.nextInt(length) == 0) {
+                    child[g] = randomGene(g);
+                }
+            }
+            double score = evaluate(root, child, ourShips, owner);
+            evaluations++;
+            int worst = worst();
+            if (score > fitness[worst]) {
+                System.arraycopy(child, 0, genes[worst], 0, length);
+                fitness[worst] = score;
+            }
+        }
+
+        int best = best();
+        previousBest = genes[best].clone();
+        previousShips = nbShips;
+        Ship.Action[] actions = new Ship.Action[nbShips];
+        for (int s = 0; s < nbShips; s++) {
+            actions[s] = GENES[genes[best][s]];
+        }
+        return actions;
+    }
+
+    /**
+     * @param g index of the gene in the sequence, the first genes are the actions of the first turn
+     */
+    private int randomGene(int g) {
+        if (g < fireTargets.length && fireTargets[g] != -1) {
+            return random.nextInt(GENES.length);
+        }
+        return random.nextInt(GENES.length - 1);
+    }
+
+    private int tournament() {
+        int a = random.nextInt(populationSize);
+        int b = random.nextInt(populationSize);
+        return fitness[a] >= fitness[b] ? a : b;
+    }
+
+    private int best() {
+        int best = 0;
+        for (int i = 1; i < populationSize; i++) {
+            if (fitness[i] > fitness[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private int worst() {
+        int worst = 0;
+        for (int i = 1; i < populationSize; i++) {
+            if (fitness[i] < fitness[worst]) {
+                worst = i;
+            }
+        }
+        return worst;
+    }
+
+    /**
+     * play the sequence from the root, enemy ships wait, and score the final state
+     */
+    double evaluate(GameState root, int[] sequence, int[] ourShips, int owner) {
+        rollout.copyFrom(root);
+        int nbShips = ourShips.length;
+        for (int turn = 0; turn < horizon; turn++) {
+            for (int s = 0; s < nbShips; s++) {
+                Ship.Action action = GENES[sequence[turn * nbShips + s]];
+                if (action == Ship.Action.FIRE) {
+                    rollout.setFire(ourShips[s], GameState.col(fireTargets[s]), GameState.row(fireTargets[s]));
+                } else {
+                    rollout.setAction(ourShips[s], action);
+                }
+            }
+            if (rollout.step()) {
+                break;
+            }
+        }
+        return score(rollout, owner);
+    }
+
+    /**
+     * rum of our ships against the rum of the enemy, with a penalty for sunk ships and a pull towards the barrels
+     * left, so that sequences ending closer to a barrel are preferred when no barrel is reached within the horizon
+     */
+    static double score(GameState state, int owner) {
+        double score = 0;
+        for (int ship = 0; ship < state.getShipCount(); ship++) {
+            boolean ours = state.getShipOwner(ship) == owner;
+            if (!state.isAlive(ship)) {
+                score += ours ? -SUNK_PENALTY : SUNK_PENALTY * ENEMY_RUM_WEIGHT;
+                continue;
+            }
+            if (!ours) {
+                score -= ENEMY_RUM_WEIGHT * state.getShipHealth(ship);
+                continue;
+            }
+            score += state.getShipHealth(ship);
+            int closest = Integer.MAX_VALUE;
+            for (int barrel = 0; barrel < state.getBarrelCount(); barrel++) {
+                closest = Math.min(closest, GameState.distance(state.getShipCell(ship), state.getBarrelCell(barrel)));
+            }
+            if (closest != Integer.MAX_VALUE) {
+                score -= BARREL_DISTANCE_WEIGHT * Math.min(closest, MAX_BARREL_DISTANCE);
+            }
+        }
+        return score;
+    }
+}
+
+/**
+ * Assignment of rows to columns maximizing the total value, with the Hungarian algorithm in O(rows^2 * columns).
+ * Used to share the barrels between our ships, where the matrices are at most 3 ships by a few dozen barrels.
+ */
+class Assignment {
+
+    /**
+     * @param value value of each row and column pair, all rows the same length
+     * @return column assigned to each row, -1 for the rows left out when there are fewer columns than rows
+     */
+    public static int[] maximize(int[][] value) {
+        int rows = value.length;
+        int columns = rows == 0 ? 0 : value[0].length;
+        int[] assigned = new int[rows];
+        Arrays.fill(assigned, -1);
+        if (rows <= columns) {
+            int[] rowOf = minimize(value, rows, columns, false);
+            for (int column = 0; column < columns; column++) {
+                if (rowOf[column] != -1) {
+                    assigned[rowOf[column]] = column;
+                }
+            }
+        } else {
+            // every column gets a row
+            assigned = minimize(value, columns, rows, true);
+        }
+        return assigned;
+    }
+
+    /**
+     * Hungarian algorithm on the costs -value, with n <= m, the rows of the algorithm are the columns of value when
+     * transposed
+     *
+     * @return row assigned to each of the m columns of the algorithm, -1 if none
+     */
+    private static int[] minimize(int[][] value, int n, int m, boolean transposed) {
+        // potentials and matching of the algorithm, indexes from 1 with 0 as a sentinel
+        long[] u = new long[n + 1];
+        long[] v = new long[m + 1];
+        int[] p = new int[m + 1];
+        int[] way = new int[m + 1];
+        for (int i = 1; i <= n; i++) {
+            p[0] = i;
+            int j0 = 0;
+            long[] minv = new long[m + 1];
+            Arrays.fill(minv, Long.MAX_VALUE);
+            boolean[] used = new boolean[m + 1];
+            do {
+                used[j0] = true;
+                int i0 = p[j0];
+                long delta = Long.MAX_VALUE;
+                int j1 = 0;
+                for (int j = 1; j <= m; j++) {
+                    if (!used[j]) {
+                        long cost = -(transposed ? value[j - 1][i0 - 1] : value[i0 - 1][j - 1]);
+                        long current = cost - u[i0] - v[j];
+                        if (current < minv[j]) {
+                            minv[j] = current;
+                            way[j] = j0;
+                        }
+                        if (minv[j] < delta) {
+                            delta = minv[j];
+                            j1 = j;
+                        }
+                    }
+                }
+                for (int j = 0; j <= m; j++) {
+                    if (used[j]) {
+                        u[p[j]] += delta;
+                        v[j] -= delta;
+                    } else {
+                        minv[j] -= delta;
+                    }
+                }
+                j0 = j1;
+            } while (p[j0] != 0);
+            do {
+                int j1 = way[j0];
+                p[j0] = p[j1];
+                j0 = j1;
+            } while (j0 != 0);
+        }
+        int[] rowOf = new int[m];
+        for (int j = 1; j <= m; j++) {
+            rowOf[j - 1] = p[j] - 1;
+        }
+        return rowOf;
+    }
+}
+
+/**
+ * Writes a line based trace of the turns off the critical path: the planning thread copies the values of a record into
+ * a ring buffer of ints, without allocating, and a daemon thread formats the records and writes them.
+ * If the writer falls behind and the ring is full, records are dropped rather than delaying the turn. Once a record
+ * of a turn is dropped, the rest of the turn is dropped too: the turn has no time line, and TraceReplay skips it.
+ * <p>
+ * A turn is traced as the referee input, the state kept by the player between turns, and the commands:
+ * <pre>
+ * turn 1
+ * in 1
+ * in 3
+ * in 0 SHIP 3 4 1 2 80 1
+ * ...
+ * cooldown 0 0 0        ship id, mine cooldown and cannon cooldown before the turn
+ * evaluations 2000      rollouts of the EVOLUTION planner
+ * out FASTER
+ * time 3512             microseconds spent in getCommands
+ * </pre>
+ */
+class TraceWriter {
+
+    // ints in the ring, a power of two
+    private static final int CAPACITY = 1 << 16;
+    private static final int MASK = CAPACITY - 1;
+    private static final long POLL_NANOS = 1000000L;
+
+    private static final int CONFIG = 0;
+    private static final int INPUT = 1;
+    private static final int ENTITY = 2;
+    private static final int COOLDOWN = 3;
+    private static final int EVALUATIONS = 4;
+    private static final int COMMAND = 5;
+    private static final int END_TURN = 6;
+    // command codes are the ordinals of Ship.Action, EMPTY written WAIT, and MOVE after them
+    private static final Ship.Action[] ACTIONS = Ship.Action.values();
+    private static final int MOVE = ACTIONS.length;
+
+    private final int[] ring = new int[CAPACITY];
+    // next position to write, published when a record is complete, and next position to read
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicInteger dropped = new AtomicInteger();
+    // record being written by the planning thread, which must end before limit
+    private long recordStart;
+    private long position;
+    private long limit;
+    private boolean overflow;
+    // true once a record of the current turn is dropped
+    private boolean turnDropped;
+    private int turn;
+
+    private final PrintStream out;
+    private final Thread thread;
+    private volatile boolean closed;
+
+    public TraceWriter(OutputStream out) {
+        this.out = new PrintStream(new BufferedOutputStream(out), false);
+        thread = new Thread(this::drain, "trace");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // record writing, on the planning thread
+
+    private void begin(int type) {
+        recordStart = head.get();
+        position = recordStart;
+        limit = tail.get() + CAPACITY;
+        overflow = turnDropped;
+        put(type);
+        // length of the record, set by end
+        put(0);
+    }
+
+    private void put(int value) {
+        if (position == limit) {
+            overflow = true;
+            return;
+        }
+        ring[(int) position & MASK] = value;
+        position++;
+    }
+
+    private void end() {
+        if (overflow) {
+            dropped.incrementAndGet();
+            turnDropped = true;
+            return;
+        }
+        ring[(int) (recordStart + 1) & MASK] = (int) (position - recordStart - 2);
+        head.lazySet(position);
+    }
+
+    /**
+     * @param turnBudget    planning time per turn in nanoseconds
+     * @param searchHorizon turn horizon of the PACKED searches, 0 for no limit
+     * @param assignBarrels true if the PackedSearch planners share the barrels between the ships, see Player.setAssignBarrels
+     * @param openingBook   true if the first turn follows the OpeningBook, see Player.setOpeningBook
+     */
+    public void config(Player.Planner planner, long turnBudget, boolean reusePlans, boolean predictShips, int searchHorizon,
+                       boolean assignBarrels, boolean openingBook) {
+        begin(CONFIG);
+        put(planner.ordinal());
+        put((int) (turnBudget / 1000));
+        put(reusePlans ? 1 : 0);
+        put(predictShips ? 1 : 0);
+        put(searchHorizon);
+        put(assignBarrels ? 1 : 0);
+        put(openingBook ? 1 : 0);
+        end();
+    }
+
+    public void input(int myShipCount, int entityCount) {
+        turnDropped = false;
+        begin(INPUT);
+        put(myShipCount);
+        put(entityCount);
+        end();
+    }
+
+    /**
+     * @param type index of the entity type in Player.ENTITY_NAMES
+     */
+    public void entity(int id, int type, int x, int y, int arg1, int arg2, int arg3, int arg4) {
+        begin(ENTITY);
+        put(id);
+        put(type);
+        put(x);
+        put(y);
+        put(arg1);
+        put(arg2);
+        put(arg3);
+        put(arg4);
+        end();
+    }
+
+    public void cooldown(int shipId, int mineCooldown, int cannonCooldown) {
+        begin(COOLDOWN);
+        put(shipId);
+        put(mineCooldown);
+        put(cannonCooldown);
+        end();
+    }
+
+    public void evaluations(int evaluations) {
+        begin(EVALUATIONS);
+        put(evaluations);
+        end();
+    }
+
+    /**
+     * @param command a command of getCommands, an action name, WAIT, or FIRE and MOVE with their coordinates
+     */
+    public void command(String command) {
+        int code = -1;
+        if (command.startsWith("WAIT")) {
+            code = Ship.Action.EMPTY.ordinal();
+        } else if (command.startsWith("MOVE")) {
+            code = MOVE;
+        } else {
+            for (Ship.Action action : ACTIONS) {
+                if (command.startsWith(action.name())) {
+                    code = action.ordinal();
+                }
+            }
+        }
+        if (code == -1) {
+            return;
+        }
+        begin(COMMAND);
+        put(code);
+        // coordinates of FIRE and MOVE
+        int value = -1;
+        for (int i = 0; i < command.length(); i++) {
+            char c = command.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = (value == -1 ? 0 : value * 10) + c - '0';
+            } else if (value != -1) {
+                put(value);
+                value = -1;
+            }
+        }
+        if (value != -1) {
+            put(value);
+        }
+        end();
+    }
+
+    /**
+     * @param time time spent by getCommands, in nanoseconds
+     */
+    public void endTurn(long time) {
+        begin(END_TURN);
+        put((int) (time / 1000));
+        end();
+    }
+
+    /**
+     * @return number of records lost because the ring was full
+     */
+    public int getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * write the records left and stop the writing thread
+     */
+    public void close() {
+        closed = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // record formatting, on the trace thread
+
+    private void drain() {
+        while (true) {
+            // read closed first, so that the records published before close are all written
+            boolean last = closed;
+            long available = head.get();
+            long read = tail.get();
+            while (read < available) {
+                int type = ring[(int) read & MASK];
+                int length = ring[(int) (read + 1) & MASK];
+                format(type, read + 2);
+                read += 2 + length;
+            }
+            tail.lazySet(read);
+            out.flush();
+            if (last) {
+                return;
+            }
+            LockSupport.parkNanos(POLL_NANOS);
+        }
+    }
+
+    private int get(long record, int index) {
+        return ring[(int) (record + index) & MASK];
+    }
+
+    private void format(int type, long record) {
+        switch (type) {
+            case CONFIG:
+                out.println("config " + Player.Planner.values()[get(record, 0)] + " " + get(record, 1) + " "
+                        + (get(record, 2) == 1) + " " + (get(record, 3) == 1) + " " + get(record, 4) + " "
+                        + (get(record, 5) == 1) + " " + (get(record, 6) == 1));
+                break;
+            case INPUT:
+                out.println("turn " + ++turn);
+                out.println("in " + get(record, 0));
+                out.println("in " + get(record, 1));
+                break;
+            case ENTITY:
+                out.println("in " + get(record, 0) + " " + Player.ENTITY_NAMES[get(record, 1)] + " " + get(record, 2) + " "
+                        + get(record, 3) + " " + get(record, 4) + " " + get(record, 5) + " " + get(record, 6) + " "
+                        + get(record, 7));
+                break;
+            case COOLDOWN:
+                out.println("cooldown " + get(record, 0) + " " + get(record, 1) + " " + get(record, 2));
+                break;
+            case EVALUATIONS:
+                out.println("evaluations " + get(record, 0));
+                break;
+            case COMMAND:
+                int code = get(record, 0);
+                if (code == Ship.Action.FIRE.ordinal() || code == MOVE) {
+                    out.println("out " + (code == MOVE ? "MOVE" : "FIRE") + " " + get(record, 1) + " " + get(record, 2));
+                } else {
+                    out.println("out " + (code == Ship.Action.EMPTY.ordinal() ? "WAIT" : ACTIONS[code].name()));
+                }
+                break;
+            case END_TURN:
+                out.println("time " + get(record, 0));
+                break;
+            default:
+                break;
+        }
+    }
+}
+
+/**
+ * Reads the integers and words of the referee input straight from the bytes, without the regular expressions and the
+ * strings of Scanner. With read ahead, a daemon thread copies the input into a buffer as soon as it arrives, so that
+ * the input of the next turn is already read when the commands of the current turn are sent.
+ */
+class InputReader {
+
+    private static final int CHUNK_SIZE = 1 << 13;
+
+    private final InputStream in;
+    private final boolean readAhead;
+    // bytes being parsed, from position to length
+    private byte[] buffer = new byte[CHUNK_SIZE];
+    private int position;
+    private int length;
+    // bytes read ahead and not parsed yet, shared with the reading thread
+    private byte[] pending = new byte[CHUNK_SIZE];
+    private int pendingLength;
+    private boolean closed;
+    private IOException failure;
+
+    /**
+     * @param readAhead true to read the stream on a daemon thread, false to read it when bytes are needed
+     */
+    public InputReader(InputStream in, boolean readAhead) {
+        this.in = in;
+        this.readAhead = readAhead;
+        if (readAhead) {
+            Thread thread = new Thread(this::readAhead, "input");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void readAhead() {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        IOException error = null;
+        try {
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                synchronized (this) {
+                    if (pendingLength + read > pending.length) {
+                        pending = Arrays.copyOf(pending, Math.max(2 * pending.length, pendingLength + read));
+                    }
+                    System.arraycopy(chunk, 0, pending, pendingLength, read);
+                    pendingLength += read;
+                    notifyAll();
+                }
+            }
+        } catch (IOException e) {
+            error = e;
+        }
+        synchronized (this) {
+            failure = error;
+            closed = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * @return false at the end of the input
+     */
+    private boolean fill() {
+        position = 0;
+        length = 0;
+        if (!readAhead) {
+            try {
+                length = Math.max(0, in.read(buffer));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return length > 0;
+        }
+        synchronized (this) {
+            while (pendingLength == 0 && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            if (pendingLength == 0) {
+                if (failure != null) {
+                    throw new UncheckedIOException(failure);
+                }
+                return false;
+            }
+            // the parsed buffer is empty, it takes the place of the pending one
+            byte[] filled = pending;
+            pending = buffer;
+            buffer = filled;
+            length = pendingLength;
+            pendingLength = 0;
+        }
+        return true;
+    }
+
+    private int read() {
+        if (position == length && !fill()) {
+            return -1;
+        }
+        return buffer[position++];
+    }
+
+    private int skipSpaces() {
+        int c = read();
+        while (c != -1 && c <= ' ') {
+            c = read();
+        }
+        if (c == -1) {
+            throw new NoSuchElementException();
+        }
+        return c;
+    }
+
+    /**
+     * @throws NoSuchElementException at the end of the input, like Scanner.nextInt
+     */
+    public int nextInt() {
+        int c = skipSpaces();
+        boolean negative = c == '-';
+        if (negative) {
+            c = read();
+        }
+        if (c < '0' || c > '9') {
+            throw new InputMismatchException();
+        }
+        int value = 0;
+        while (c >= '0' && c <= '9') {
+            value = value * 10 + c - '0';
+            c = read();
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * read the next word without making a string of it
+     *
+     * @param words the expected words, at most 64
+     * @return index of the word read in the expected words, -1 if it is none of them
+     * @throws NoSuchElementException at the end of the input
+     */
+    public int nextWord(byte[][] words) {
+        int c = skipSpaces();
+        // bit mask of the words matching the bytes read so far
+        long matching = words.length == 64 ? -1L : (1L << words.length) - 1;
+        int index = 0;
+        for (; c > ' '; c = read(), index++) {
+            for (int w = 0; w < words.length; w++) {
+                if (index >= words[w].length || words[w][index] != c) {
+                    matching &= ~(1L << w);
+                }
+            }
+        }
+        for (int w = 0; w < words.length; w++) {
+            if ((matching & (1L << w)) != 0 && words[w].length == index) {
+                return w;
+            }
+        }
+        return -1;
+    }
+}
+
 class Player {
 
+    // planning time per turn used by main, in nanoseconds, below the 50 ms timeout of the referee
+    public static final long TURN_BUDGET = 40000000L;
+    // warm-up time of the first turn used by main, in nanoseconds, the referee gives 1000 ms to the first turn
+    public static final long WARM_UP_BUDGET = 500000000L;
+
+    // turns of the reachability fields of assignBarrels, short to leave the turn budget to the path searches
+    static final int ASSIGNMENT_HORIZON = 6;
+    // weight of a rum of gain against a turn to reach the barrel in the values of assignBarrels
+    static final int ASSIGNMENT_TURN_WEIGHT = 32;
+
+    // entity types of the referee input, in the order of their indexes
+    static final String[] ENTITY_NAMES = {"SHIP", "BARREL", "MINE", "CANNONBALL"};
+    private static final byte[][] ENTITY_TYPES = new byte[ENTITY_NAMES.length][];
+    private static final int SHIP = 0;
+    private static final int BARREL = 1;
+    private static final int MINE = 2;
+    private static final int CANNONBALL = 3;
+
+    static {
+        for (int type = 0; type < ENTITY_NAMES.length; type++) {
+            ENTITY_TYPES[type] = ENTITY_NAMES[type].getBytes();
+        }
+    }
+
+    public static enum Planner {
+        BEST_PATH, // one Ship.bestPath per target
+        PACKED, // one PackedSearch.bestPath per target
+        MULTI_TARGET, // one PackedSearch.bestPaths expansion for all targets
+        EVOLUTION // one EvolutionPlanner search over the actions of all ships
+    }
+
     private List<Rum> rums = new ArrayList<>();
     private List<Ship> ourships = new ArrayList<>();
     private List<Ship> otherships = new ArrayList<>();
     private List<Mine> mines = new ArrayList<>();
     private List<Cannonball> cannonballs = new ArrayList<>();
 
+    // one search per ship, so that ships can be planned concurrently
+    private List<PackedSearch> searches = new ArrayList<>();
+    private Planner planner = Planner.PACKED;
+    private ForkJoinPool pool = null;
+    private long turnBudget = 0;
+    private long warmUpBudget = 0;
+    private long lastTurnTime = 0;
+    // plans kept from the previous turn, by ship id
+    private boolean reusePlans = false;
+    private Map<Integer, CachedPlan> plans = new ConcurrentHashMap<>();
+    private int worldSignature;
+    // true to plan around the ships where MotionPredictor expects them, instead of where they are
+    private boolean predictShips = false;
+    // turn horizon of the PACKED searches, 0 for no limit
+    private int searchHorizon = 0;
+    // true to share the barrels between our ships before the PackedSearch planners search, see assignBarrels
+    private boolean assignBarrels = false;
+    // true for the ships to start on the lines of the OpeningBook
+    private boolean openingBook = false;
+    // turns played by this bot
+    private int turnCount = 0;
+    private TraceWriter trace = null;
+    private final PlannerStats stats = new PlannerStats();
+    private AtomicInteger reusedPlans = new AtomicInteger();
+    private EvolutionPlanner evolution = new EvolutionPlanner();
+    private Gunnery gunnery = new Gunnery();
+    // mine and cannon cooldowns of our ships by id, as the referee does not send them
+    private Map<Integer, Integer> mineCooldowns = new HashMap<>();
+    private Map<Integer, Integer> cannonCooldowns = new HashMap<>();
+
     public void addRum(Rum rum) {
         rums.add(rum);
     }
@@ -826,50 +4217,625 @@ class Player {
         return ourships.size();
     }
 
+    public void setPlanner(Planner planner) {
+        this.planner = planner;
+    }
+
+    /**
+     * @param populationSize sequences kept by the EVOLUTION planner
+     * @param horizon        turns played by each sequence
+     */
+    public void setEvolution(int populationSize, int horizon) {
+        evolution.setPopulationSize(populationSize);
+        evolution.setHorizon(horizon);
+    }
+
+    /**
+     * @param maxEvaluations rollouts per turn of the EVOLUTION planner without turn budget, see EvolutionPlanner
+     */
+    public void setMaxEvaluations(int maxEvaluations) {
+        evolution.setMaxEvaluations(maxEvaluations);
+    }
+
+    /**
+     * @param turnBudget planning time of getCommands in nanoseconds, split between our ships, 0 for no limit
+     */
+    public void setTurnBudget(long turnBudget) {
+        this.turnBudget = turnBudget;
+    }
+
+    /**
+     * @param warmUpBudget time of the first getCommands spent in warmUp before planning, in nanoseconds, 0 for none
+     */
+    public void setWarmUpBudget(long warmUpBudget) {
+        this.warmUpBudget = warmUpBudget;
+    }
+
+    /**
+     * @return time spent by the last getCommands, in nanoseconds
+     */
+    public long getLastTurnTime() {
+        return lastTurnTime;
+    }
+
+    /**
+     * @return rollouts of the EVOLUTION planner in the last getCommands
+     */
+    public int getLastEvaluations() {
+        return evolution.getEvaluations();
+    }
+
+    /**
+     * @return fraction of the turn budget used by the last getCommands, 0 without budget
+     */
+    public double getLastBudgetUsage() {
+        return turnBudget == 0 ? 0 : (double) lastTurnTime / turnBudget;
+    }
+
+    /**
+     * @param reusePlans true to keep following the plan of the previous turn while it stays valid, see reusePlan
+     */
+    public void setReusePlans(boolean reusePlans) {
+        this.reusePlans = reusePlans;
+    }
+
+    /**
+     * @param predictShips true for the path planners to avoid our other ships and the enemy ships where they are
+     * predicted at each turn, false to avoid the enemy ships where they are. Ship.bestPath always uses the latter.
+     */
+    public void setPredictShips(boolean predictShips) {
+        this.predictShips = predictShips;
+    }
+
+    /**
+     * @param searchHorizon longest path of the PACKED planner in turns, 0 for no limit, see PackedSearch.setHorizon
+     */
+    public void setSearchHorizon(int searchHorizon) {
+        this.searchHorizon = searchHorizon;
+    }
+
+    /**
+     * @param assignBarrels true for the PACKED and MULTI_TARGET planners to give each of our ships its own barrel,
+     *                      chosen jointly from the reachability fields of the ships, and search only the path to it.
+     *                      BEST_PATH stays the reference search of every barrel.
+     */
+    public void setAssignBarrels(boolean assignBarrels) {
+        this.assignBarrels = assignBarrels;
+    }
+
+    /**
+     * @param openingBook true for the first turn of the PACKED and MULTI_TARGET planners to follow the best line of the
+     *                    OpeningBook to a barrel which holds in the current world, instead of searching
+     */
+    public void setOpeningBook(boolean openingBook) {
+        this.openingBook = openingBook;
+    }
+
+    /**
+     * @param trace writer of the inputs, state and commands of each turn, null for no trace. Set it once the planner
+     *              is configured, the configuration is traced first.
+     */
+    public void setTrace(TraceWriter trace) {
+        this.trace = trace;
+        if (trace != null) {
+            trace.config(planner, turnBudget, reusePlans, predictShips, searchHorizon, assignBarrels, openingBook);
+        }
+    }
+
+    /**
+     * set the cooldowns of one of our ships before the next getCommands, they are otherwise counted from our commands
+     */
+    public void setCooldowns(int shipId, int mineCooldown, int cannonCooldown) {
+        mineCooldowns.put(shipId, mineCooldown);
+        cannonCooldowns.put(shipId, cannonCooldown);
+    }
+
+    /**
+     * @return the work of the planners since the first turn, or the last PlannerStats.reset
+     */
+    public PlannerStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return number of turns where a ship followed its previous plan instead of searching
+     */
+    public int getReusedPlans() {
+        return reusedPlans.get();
+    }
+
+    /**
+     * @param parallelism number of threads planning our ships, and the targets of Ship.bestPath, 1 to plan sequentially
+     */
+    public void setParallelism(int parallelism) {
+        if (pool != null) {
+            pool.shutdown();
+        }
+        pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    }
+
+    /**
+     * A plan of the previous turn is still valid when the ship ended up in the predicted state, barrels and mines did
+     * not change, and replaying the remaining moves against the current ships and cannonballs still reaches the barrel
+     * with the same rum. The search world must be set for the ship.
+     *
+     * @return the remaining moves of the plan if it is still valid, null otherwise
+     */
+    private List<Ship.Action> reusePlan(Ship ship, PackedSearch search, CachedPlan plan, int signature) {
+        if (signature != worldSignature || plan.getExpectedState() != ShipState.of(ship)) {
+            return null;
+        }
+        int state = search.simulate(plan.getExpectedState(), plan.getMoves());
+        if (state != plan.getFinalState() || !PackedSearch.overlap(state, plan.getTarget())) {
+            return null;
+        }
+        return plan.getMoves();
+    }
+
+    private void cachePlan(Ship ship, PackedSearch search, List<Ship.Action> moves, OffsetCoord target) {
+        if (moves.size() < 2) {
+            return;
+        }
+        int state = ShipState.of(ship);
+        int expected = search.simulate(state, moves.subList(0, 1));
+        int last = search.simulate(state, moves);
+        // partial paths of interrupted searches do not reach their target and are not kept
+        if (expected != -1 && last != -1 && PackedSearch.overlap(last, target.toCell())) {
+            plans.put(ship.getId(), new CachedPlan(expected, new ArrayList<>(moves.subList(1, moves.size())), target.toCell(), last));
+        }
+    }
+
+    private List<MoveSequence> bestPaths(Ship ship, PackedSearch search, List<OffsetCoord> targets, long deadline) {
+        if (planner == Planner.MULTI_TARGET) {
+            return search.bestPaths(ship, targets);
+        }
+        if (planner == Planner.BEST_PATH && pool != null) {
+            // Ship.bestPath does not modify the entities, run from a pool thread the stream forks into the same pool
+            return targets.parallelStream().map(target -> bestPath(ship, search, target, deadline)).collect(Collectors.toList());
+        }
+        List<MoveSequence> paths = new ArrayList<>(targets.size());
+        for (OffsetCoord target : targets) {
+            paths.add(bestPath(ship, search, target, deadline));
+        }
+        return paths;
+    }
+
+    private MoveSequence bestPath(Ship ship, PackedSearch search, OffsetCoord target, long deadline) {
+        if (deadline != 0 && System.nanoTime() - deadline > 0) {
+            // out of time, the remaining targets are not reached
+            return new MoveSequence(0, new ArrayList<Ship.Action>());
+        } else if (planner == Planner.PACKED) {
+            return search.bestPath(ship, target);
+        } else {
+            return ship.bestPath(target, otherships, rums, mines, cannonballs, stats, deadline);
+        }
+    }
+
     public List<String> getCommands() {
-        List<String> commands = new ArrayList<>();
+        if (turnCount == 0 && warmUpBudget != 0) {
+            warmUp(System.nanoTime() + warmUpBudget);
+        }
+        long start = System.nanoTime();
+        if (trace != null) {
+            traceInput();
+        }
         int size = getOurShipCount();
+        int signature = 31 * rums.hashCode() + mines.hashCode();
+        Map<Integer, CachedPlan> previousPlans = plans;
+        plans = new ConcurrentHashMap<>();
+        long searchCount = stats.getSearches();
+        while (searches.size() < size) {
+            PackedSearch search = new PackedSearch();
+            search.setStats(stats);
+            searches.add(search);
+        }
+        // the board is only read while planning, all ships share it
+        Board board = new Board(otherships, rums, mines);
+        ImpactTable impacts = new ImpactTable(cannonballs);
+        List<Ship> ships = new ArrayList<>(ourships);
+        ships.addAll(otherships);
+        MotionPredictor motion = predictShips ? new MotionPredictor(ships) : null;
+        String[] commands = new String[size];
+        GameState state = toGameState();
+        int owner = ourships.isEmpty() ? 0 : ourships.get(0).getId() % 2;
+        int[] ourShips = ourShipIndexes(state, owner);
+        gunnery.predict(state);
+        List<List<Rum>> barrels = planner == Planner.EVOLUTION ? null : assignBarrels(board, impacts, motion, turnBudget == 0 ? 0 : start + turnBudget);
+        if (planner == Planner.EVOLUTION) {
+            planEvolution(commands, state, ourShips, owner, turnBudget == 0 ? 0 : start + turnBudget);
+        } else if (pool != null) {
+            // ships are planned concurrently, each one with its own search, until the end of the turn
+            long deadline = turnBudget == 0 ? 0 : start + turnBudget;
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                final int index = i;
+                tasks.add(pool.submit(() -> {
+                    long shipStart = System.nanoTime();
+                    commands[index] = planShip(ourships.get(index), searches.get(index), barrels.get(index), board, impacts, motion, deadline, signature, previousPlans);
+                    stats.recordShip(System.nanoTime() - shipStart);
+                }));
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                // each ship gets an equal share of the time left
+                long shipStart = System.nanoTime();
+                long deadline = 0;
+                if (turnBudget != 0) {
+                    deadline = shipStart + (start + turnBudget - shipStart) / (size - i);
+                }
+                commands[i] = planShip(ourships.get(i), searches.get(i), barrels.get(i), board, impacts, motion, deadline, signature, previousPlans);
+                stats.recordShip(System.nanoTime() - shipStart);
+            }
+        }
+        if (planner != Planner.EVOLUTION) {
+            fireInsteadOfWaiting(commands, state, ourShips);
+        }
+        updateCooldowns(commands, state, ourShips);
+        worldSignature = signature;
+        turnCount++;
+        lastTurnTime = System.nanoTime() - start;
+        stats.recordTurn(stats.getSearches() - searchCount, lastTurnTime);
+        if (trace != null) {
+            if (planner == Planner.EVOLUTION) {
+                trace.evaluations(evolution.getEvaluations());
+            }
+            for (String command : commands) {
+                trace.command(command);
+            }
+            trace.endTurn(lastTurnTime);
+        }
+        return new ArrayList<>(Arrays.asList(commands));
+    }
+
+    /**
+     * Plan turns of random games with bots configured like this one until the deadline, so that the JIT has compiled
+     * the planners before the turns with a short budget. The entities and plans of this bot are left unchanged.
+     *
+     * @return number of turns planned
+     */
+    public int warmUp(long deadline) {
+        long start = System.nanoTime();
+        Random random = new Random(0);
+        int turns = 0;
+        while (deadline - System.nanoTime() > 0) {
+            Player bot = new Player();
+            bot.setPlanner(planner);
+            bot.setReusePlans(reusePlans);
+            bot.setPredictShips(predictShips);
+            bot.setSearchHorizon(searchHorizon);
+            bot.setAssignBarrels(assignBarrels);
+            bot.setOpeningBook(openingBook);
+            // the last turn does not run past the deadline
+            long left = deadline - System.nanoTime();
+            bot.setTurnBudget(turnBudget == 0 ? left : Math.min(turnBudget, left));
+            int nbShips = 1 + random.nextInt(GameState.MAX_SHIPS / 2);
+            for (int i = 0; i < 2 * nbShips; i++) {
+                // player 0 owns the even ids
+                Ship ship = new Ship(i, 1 + random.nextInt(OffsetCoord.MAP_WIDTH - 2), 1 + random.nextInt(OffsetCoord.MAP_HEIGHT - 2),
+                        i % 2 == 0 ? 1 : 0, 30 + random.nextInt(71), random.nextInt(Ship.MAX_SHIP_SPEED + 1), random.nextInt(6));
+                if (i % 2 == 0) {
+                    bot.addOurShip(ship);
+                } else {
+                    bot.addEnemyShip(ship);
+                }
+            }
+            int id = 2 * nbShips;
+            for (int i = 0, n = 10 + random.nextInt(17); i < n; i++) {
+                bot.addRum(new Rum(id++, random.nextInt(OffsetCoord.MAP_WIDTH), random.nextInt(OffsetCoord.MAP_HEIGHT), 10 + random.nextInt(11)));
+            }
+            for (int i = 0, n = 5 + random.nextInt(6); i < n; i++) {
+                bot.addMine(new Mine(id++, random.nextInt(OffsetCoord.MAP_WIDTH), random.nextInt(OffsetCoord.MAP_HEIGHT)));
+            }
+            for (int i = 0, n = random.nextInt(4); i < n; i++) {
+                bot.addCannonball(new Cannonball(id++, random.nextInt(OffsetCoord.MAP_WIDTH), random.nextInt(OffsetCoord.MAP_HEIGHT),
+                        1 + random.nextInt(4), 2 * random.nextInt(nbShips) + 1));
+            }
+            bot.getCommands();
+            turns++;
+        }
+        stats.recordWarmUp(turns, System.nanoTime() - start);
+        return turns;
+    }
+
+    /**
+     * trace the entities in the format of the referee input, and the cooldowns of our ships
+     */
+    private void traceInput() {
+        trace.input(ourships.size(), ourships.size() + otherships.size() + rums.size() + mines.size() + cannonballs.size());
+        for (List<Ship> ships : Arrays.asList(ourships, otherships)) {
+            for (Ship ship : ships) {
+                trace.entity(ship.getId(), SHIP, ship.getCol(), ship.getRow(), ship.getDirection(), ship.getSpeed(), ship.getQuant(), ship.getOwner());
+            }
+        }
+        for (Rum rum : rums) {
+            trace.entity(rum.getId(), BARREL, rum.getCol(), rum.getRow(), rum.getQuant(), 0, 0, 0);
+        }
+        for (Mine mine : mines) {
+            trace.entity(mine.getId(), MINE, mine.getCol(), mine.getRow(), 0, 0, 0, 0);
+        }
+        for (Cannonball ball : cannonballs) {
+            trace.entity(ball.getId(), CANNONBALL, ball.getCol(), ball.getRow(), ball.getOwnerID(), ball.getInitialRemainingTurns(), 0, 0);
+        }
+        for (Ship ship : ourships) {
+            trace.cooldown(ship.getId(), mineCooldowns.getOrDefault(ship.getId(), 0), cannonCooldowns.getOrDefault(ship.getId(), 0));
+        }
+    }
+
+    /**
+     * @return the state of the turn for the simulator. Ship ids alternate between the players when the referee creates
+     * the ships, player 0 owning the even ids, and its ships come first in the state like in the referee.
+     */
+    public GameState toGameState() {
+        GameState state = new GameState();
+        int ourIndex = ourships.isEmpty() ? 0 : ourships.get(0).getId() % 2;
+        for (int index = 0; index < 2; index++) {
+            for (Ship ship : index == ourIndex ? ourships : otherships) {
+                int mineCooldown = index == ourIndex ? mineCooldowns.getOrDefault(ship.getId(), 0) : 0;
+                int cannonCooldown = index == ourIndex ? cannonCooldowns.getOrDefault(ship.getId(), 0) : 0;
+                state.addShip(ship.getId(), index, ship.getCol(), ship.getRow(), ship.getDirection(), ship.getSpeed(), ship.getQuant(),
+                        mineCooldown, cannonCooldown);
+            }
+        }
+        for (Rum rum : rums) {
+            state.addBarrel(rum.getCol(), rum.getRow(), rum.getQuant());
+        }
+        for (Mine mine : mines) {
+            state.addMine(mine.getCol(), mine.getRow());
+        }
+        for (Cannonball ball : cannonballs) {
+            state.addCannonball(ball.getCol(), ball.getRow(), ball.getOwnerID(), ball.getInitialRemainingTurns());
+        }
+        return state;
+    }
+
+    /**
+     * @return indexes of our ships in the state, in the order of ourships
+     */
+    private int[] ourShipIndexes(GameState state, int owner) {
+        int[] ourShips = new int[ourships.size()];
+        for (int ship = 0, s = 0; ship < state.getShipCount(); ship++) {
+            if (state.getShipOwner(ship) == owner) {
+                ourShips[s++] = ship;
+            }
+        }
+        return ourShips;
+    }
+
+    private static String fireCommand(int target) {
+        return Ship.Action.FIRE.name() + " " + GameState.col(target) + " " + GameState.row(target);
+    }
+
+    private void planEvolution(String[] commands, GameState state, int[] ourShips, int owner, long deadline) {
+        int[] targets = new int[ourShips.length];
+        for (int s = 0; s < ourShips.length; s++) {
+            targets[s] = gunnery.aim(state, ourShips[s]);
+        }
+        Ship.Action[] actions = evolution.plan(state, ourShips, targets, owner, deadline);
+        for (int s = 0; s < actions.length; s++) {
+            if (actions[s] == Ship.Action.FIRE) {
+                commands[s] = fireCommand(targets[s]);
+            } else {
+                // EMPTY is not a command of the referee
+                commands[s] = actions[s] == Ship.Action.EMPTY ? "WAIT" : actions[s].name();
+            }
+        }
+    }
+
+    /**
+     * @return true if the command does not change the speed nor the direction of the ship, so that firing instead
+     * leaves the planned path unchanged. The path searches wait with MINE, or with FASTER at full speed.
+     */
+    private static boolean keepsCourse(Ship ship, String command) {
+        return command.equals("WAIT") || command.equals(Ship.Action.MINE.name())
+                || command.equals(Ship.Action.FASTER.name()) && ship.getSpeed() == Ship.MAX_SHIP_SPEED
+                || command.equals(Ship.Action.SLOWER.name()) && ship.getSpeed() == 0;
+    }
+
+    /**
+     * the path planners have no FIRE action, a ship which would keep its course fires instead when a shot is expected
+     * to deal enough damage
+     */
+    private void fireInsteadOfWaiting(String[] commands, GameState state, int[] ourShips) {
+        for (int s = 0; s < commands.length; s++) {
+            if (keepsCourse(ourships.get(s), commands[s])) {
+                int target = gunnery.aim(state, ourShips[s]);
+                if (target != -1) {
+                    commands[s] = fireCommand(target);
+                }
+            }
+        }
+    }
+
+    /**
+     * follow the mine and cannon cooldowns of our ships, decremented each turn and reset when a mine is dropped or a
+     * cannonball fired. A MINE command only drops a mine where the referee places it, the path planners also wait with
+     * MINE.
+     *
+     * @param state state of the turn, before the commands
+     */
+    private void updateCooldowns(String[] commands, GameState state, int[] ourShips) {
+        boolean[] mined = new boolean[commands.length];
+        boolean[] fired = new boolean[commands.length];
+        for (int s = 0; s < commands.length; s++) {
+            mined[s] = commands[s].startsWith(Ship.Action.MINE.name()) && state.mineTarget(ourShips[s]) != -1;
+            fired[s] = commands[s].startsWith(Ship.Action.FIRE.name());
+        }
+        mineCooldowns = updateCooldowns(mined, mineCooldowns, GameState.COOLDOWN_MINE);
+        cannonCooldowns = updateCooldowns(fired, cannonCooldowns, GameState.COOLDOWN_CANNON);
+    }
+
+    private Map<Integer, Integer> updateCooldowns(boolean[] used, Map<Integer, Integer> previous, int reset) {
+        Map<Integer, Integer> cooldowns = new HashMap<>();
+        for (int s = 0; s < used.length; s++) {
+            int id = ourships.get(s).getId();
+            int cooldown = Math.max(0, previous.getOrDefault(id, 0) - 1);
+            if (cooldown == 0 && used[s]) {
+                cooldown = reset;
+            }
+            cooldowns.put(id, cooldown);
+        }
+        return cooldowns;
+    }
+
+    /**
+     * Share the barrels between our ships: a short reachability field of each ship (see PackedSearch.expand) gives the
+     * gain of each ship at each barrel, and the assignment maximizing the total gain gives each ship its barrel.
+     * The gain of a barrel out of the field is its rum minus a lower bound of the turns to reach it. Between equal
+     * gains, as for ships with full rum, the barrel reached first counts more.
+     *
+     * @return the barrels each ship plans for, all of them with a single ship or for a ship left without barrel
+     */
+    private List<List<Rum>> assignBarrels(Board board, ImpactTable impacts, MotionPredictor motion, long deadline) {
+        int size = ourships.size();
+        List<List<Rum>> barrels = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            barrels.add(rums);
+        }
+        if (!assignBarrels || planner == Planner.BEST_PATH || size < 2 || rums.isEmpty()) {
+            return barrels;
+        }
+        int[][] value = new int[size][rums.size()];
         for (int i = 0; i < size; i++) {
-            // the ship that we handles now
             Ship ship = ourships.get(i);
-            // others contain the join of ourships and other ships
-            List<Ship> others = new ArrayList<>();
-            others.addAll(ourships);
-            others.addAll(otherships);
-
-            int maxGain = Integer.MIN_VALUE;
-            List<Ship.Action> bestMv = new ArrayList<>();
-            for (Rum rum : rums) {
-                MoveSequence mv = ship.bestPath(rum.getCoord(), otherships, rums, mines, cannonballs);
-                if (mv.getGain() > maxGain) {
-                    maxGain = mv.getGain(); // no need to add the rum quant here, as it should already be considered in best path
-                    bestMv = mv.getMoves();
+            PackedSearch search = searches.get(i);
+            search.setDeadline(deadline);
+            search.setWorld(ship, board, impacts, motion);
+            int start = ShipState.of(ship);
+            search.expand(start, ASSIGNMENT_HORIZON);
+            for (int b = 0; b < rums.size(); b++) {
+                Rum rum = rums.get(b);
+                int cell = rum.getCoord().toCell();
+                int gain = search.getGain(cell);
+                int turns = search.getTurns(cell);
+                if (gain == Integer.MIN_VALUE) {
+                    turns = PackedSearch.turnsTo(start, cell);
+                    gain = Math.min(rum.getQuant(), Ship.MAX_SHIP_QUANT - ship.getQuant()) - turns;
                 }
+                value[i][b] = gain * ASSIGNMENT_TURN_WEIGHT - turns;
             }
-            if (maxGain < 0 || bestMv.size() == 0) {
-                // case where:
-                // 1. reaching a rum barrel causes lose
-                // 2. there is no rum left over
-                maxGain = Integer.MIN_VALUE;
-                bestMv = new ArrayList<Ship.Action>();
-                bestMv.add(Ship.Action.FASTER);
-                bestMv.add(Ship.Action.MINE);
-                List<OffsetCoord> candidates = ship.getCoord().getDist6Points();
-                for (OffsetCoord t : candidates) {
-                    MoveSequence mv = ship.bestPath(t, otherships, rums, mines, cannonballs);
-                    if (mv.getGain() > maxGain) {
-                        maxGain = mv.getGain();
-                        bestMv = mv.getMoves();
-                    }
+        }
+        int[] assigned = Assignment.maximize(value);
+        for (int i = 0; i < size; i++) {
+            if (assigned[i] != -1) {
+                barrels.set(i, Collections.singletonList(rums.get(assigned[i])));
+            }
+        }
+        return barrels;
+    }
+
+    /**
+     * A line of the OpeningBook holds when replaying it in the current world reaches the barrel with all the rum the
+     * line gains on an empty sea, without mine, cannonball nor ship on the way. The search world must be set for the
+     * ship.
+     *
+     * @return the barrel whose line holds with the highest gain, null if there is none
+     */
+    private static Rum openingBarrel(Ship ship, PackedSearch search, List<Rum> barrels) {
+        int start = ShipState.of(ship);
+        int quant = ShipState.quant(start);
+        Rum best = null;
+        int maxGain = Integer.MIN_VALUE;
+        for (Rum rum : barrels) {
+            int target = rum.getCoord().toCell();
+            List<Ship.Action> line = OpeningBook.line(start, target);
+            if (line == null || line.isEmpty()) {
+                continue;
+            }
+            int state = search.simulate(start, line);
+            if (state == -1 || !PackedSearch.overlap(state, target)
+                    || ShipState.quant(state) < Math.min(Ship.MAX_SHIP_QUANT, quant - line.size() + rum.getQuant())) {
+                continue;
+            }
+            if (ShipState.quant(state) - quant > maxGain) {
+                maxGain = ShipState.quant(state) - quant;
+                best = rum;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * plan the command of one ship, only reads the entities so that ships can be planned concurrently
+     *
+     * @param barrels barrels the ship goes for
+     */
+    private String planShip(Ship ship, PackedSearch search, List<Rum> barrels, Board board, ImpactTable impacts, MotionPredictor motion, long deadline, int signature, Map<Integer, CachedPlan> previousPlans) {
+        search.setDeadline(deadline);
+        search.setHorizon(searchHorizon);
+        if (planner != Planner.BEST_PATH) {
+            search.setWorld(ship, board, impacts, motion);
+            if (reusePlans) {
+                CachedPlan plan = previousPlans.get(ship.getId());
+                if (plan != null && barrels.size() == 1 && plan.getTarget() != barrels.get(0).getCoord().toCell()) {
+                    plan = null; // the barrel of the plan went to another ship
+                }
+                List<Ship.Action> moves = plan == null ? null : reusePlan(ship, search, plan, signature);
+                if (moves != null) {
+                    // the time saved goes to the ships planned after this one
+                    reusedPlans.incrementAndGet();
+                    cachePlan(ship, search, moves, OffsetCoord.fromCell(plan.getTarget()));
+                    return moves.get(0).name();
                 }
             }
-            if (!bestMv.isEmpty()){
-                commands.add(bestMv.get(0).name());
-            } else {
-                commands.add("MOVE " + OffsetCoord.MAP_CENTER.getCol() + " " + OffsetCoord.MAP_CENTER.getRow());
+            Rum opening = openingBook && turnCount == 0 ? openingBarrel(ship, search, barrels) : null;
+            if (opening != null) {
+                List<Ship.Action> line = OpeningBook.line(ShipState.of(ship), opening.getCoord().toCell());
+                if (reusePlans) {
+                    cachePlan(ship, search, line, opening.getCoord());
+                }
+                return line.get(0).name();
+            }
+        }
+        List<OffsetCoord> targets = new ArrayList<>();
+        for (Rum rum : barrels) {
+            targets.add(rum.getCoord());
+        }
+        List<OffsetCoord> candidates = ship.getCoord().getDist6Points();
+        // a single expansion scores the fallback points together with the barrels
+        boolean singlePass = planner == Planner.MULTI_TARGET;
+        if (singlePass) {
+            targets.addAll(candidates);
+        }
+        List<MoveSequence> paths = bestPaths(ship, search, targets, deadline);
+
+        int maxGain = Integer.MIN_VALUE;
+        List<Ship.Action> bestMv = new ArrayList<>();
+        OffsetCoord bestTarget = null;
+        for (int t = 0; t < barrels.size(); t++) {
+            MoveSequence mv = paths.get(t);
+            if (mv.getGain() > maxGain) {
+                maxGain = mv.getGain(); // no need to add the rum quant here, as it should already be considered in best path
+                bestMv = mv.getMoves();
+                bestTarget = targets.get(t);
+            }
+        }
+        if (maxGain >= 0 && reusePlans && planner != Planner.BEST_PATH) {
+            cachePlan(ship, search, bestMv, bestTarget);
+        }
+        if (maxGain < 0 || bestMv.size() == 0) {
+            // case where:
+            // 1. reaching a rum barrel causes lose
+            // 2. there is no rum left over
+            maxGain = Integer.MIN_VALUE;
+            bestMv = new ArrayList<Ship.Action>();
+            bestMv.add(Ship.Action.FASTER);
+            bestMv.add(Ship.Action.MINE);
+            List<MoveSequence> fallbacks = singlePass ? paths.subList(barrels.size(), paths.size()) : bestPaths(ship, search, candidates, deadline);
+            for (MoveSequence mv : fallbacks) {
+                if (mv.getGain() > maxGain) {
+                    maxGain = mv.getGain();
+                    bestMv = mv.getMoves();
+                }
             }
         }
-        return commands;
+        if (!bestMv.isEmpty()){
+            return bestMv.get(0).name();
+        } else {
+            return "MOVE " + OffsetCoord.MAP_CENTER.getCol() + " " + OffsetCoord.MAP_CENTER.getRow();
+        }
     }
 
     @Override
@@ -883,45 +4849,67 @@ class Player {
                 '}';
     }
 
+    /**
+     * replace the entities with those of the next turn of the referee input
+     */
+    public void readTurn(InputReader in) {
+        clearEntities();
+        int myShipCount = in.nextInt(); // the number of remaining ships
+        int entityCount = in.nextInt(); // the number of entities (e.g. ships, mines or cannonballs)
+        for (int i = 0; i < entityCount; i++) {
+            int entityId = in.nextInt();
+            int entityType = in.nextWord(ENTITY_TYPES);
+            int x = in.nextInt();
+            int y = in.nextInt();
+            int arg1 = in.nextInt();
+            int arg2 = in.nextInt();
+            int arg3 = in.nextInt();
+            int arg4 = in.nextInt();
+            switch (entityType) {
+                case SHIP:
+                    if (arg4 == 1) {
+                        addOurShip(new Ship(entityId, x, y, arg4, arg3, arg2, arg1));
+                    } else {
+                        addEnemyShip(new Ship(entityId, x, y, arg4, arg3, arg2, arg1));
+                    }
+                    break;
+                case BARREL:
+                    addRum(new Rum(entityId, x, y, arg1));
+                    break;
+                case MINE:
+                    addMine(new Mine(entityId, x, y));
+                    break;
+                case CANNONBALL:
+                    addCannonball(new Cannonball(entityId, x, y, arg2, arg1));
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Run with --trace to write the trace of the turns to stderr, see TraceWriter, and with --stats to write the
+     * PlannerStats of the game to stderr when the input ends. The first turn warms the planner up, see warmUp.
+     */
     public static void main(String args[]) {
-        Scanner in = new Scanner(System.in);
+        InputReader in = new InputReader(System.in, true);
 
         Player player = new Player();
+        player.setPlanner(Planner.EVOLUTION);
+        player.setTurnBudget(TURN_BUDGET);
+        player.setReusePlans(true);
+        player.setWarmUpBudget(WARM_UP_BUDGET);
+        if (Arrays.asList(args).contains("--trace")) {
+            TraceWriter trace = new TraceWriter(System.err);
+            player.setTrace(trace);
+            // the records of the last turns are still in the ring when the input ends
+            Runtime.getRuntime().addShutdownHook(new Thread(trace::close));
+        }
+        if (Arrays.asList(args).contains("--stats")) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> player.getStats().dump(System.err)));
+        }
         // game loop
         while (true) {
-            player.clearEntities();
-            int myShipCount = in.nextInt(); // the number of remaining ships
-            int entityCount = in.nextInt(); // the number of entities (e.g. ships, mines or cannonballs)
-            for (int i = 0; i < entityCount; i++) {
-                int entityId = in.nextInt();
-                String entityType = in.next();
-                int x = in.nextInt();
-                int y = in.nextInt();
-                int arg1 = in.nextInt();
-                int arg2 = in.nextInt();
-                int arg3 = in.nextInt();
-                int arg4 = in.nextInt();
-                switch (entityType) {
-                    case "SHIP":
-                        if (arg4 == 1) {
-                            player.addOurShip(new Ship(entityId, x, y, arg4, arg3, arg2, arg1));
-                        } else {
-                            player.addEnemyShip(new Ship(entityId, x, y, arg4, arg3, arg2, arg1));
-                        }
-                        break;
-                    case "BARREL":
-                        player.addRum(new Rum(entityId, x, y, arg1));
-                        break;
-                    case "MINE":
-                        player.addMine(new Mine(entityId, x, y));
-                        break;
-                    case "CANNONBALL":
-                        player.addCannonball(new Cannonball(entityId, x, y, arg2, arg1));
-                        break;
-                }
-            }
-
-            System.err.println(player.toString());
+            player.readTurn(in);
             List<String> commands = player.getCommands();
             for (String command : commands) {
                 System.out.println(command);
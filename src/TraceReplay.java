@@ -0,0 +1,238 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Replays the turns of traces written by TraceWriter, the stderr of games played with Player --trace, through
+ * Player.getCommands. Reports the turns whose commands differ from the traced ones, and the time per turn.
+ * Run with: java TraceReplay [trace files]
+ * <p>
+ * A game is replayed in order on one bot configured like the traced one, so that the plans kept between turns are the
+ * same. The cooldowns of each turn are restored from the trace, and the EVOLUTION planner runs the traced number of
+ * rollouts instead of stopping at a deadline, which makes its turns exact. The path planners search without deadline:
+ * a turn whose search was stopped by the turn budget in the game can give other commands.
+ * Lines of the trace files that are not trace records are skipped.
+ */
+public class TraceReplay {
+
+    /**
+     * one traced turn
+     */
+    static class Turn {
+        private final int number;
+        private final StringBuilder input = new StringBuilder();
+        // ship id, mine cooldown and cannon cooldown of our ships
+        private final List<int[]> cooldowns = new ArrayList<>();
+        private int evaluations = 0;
+        private final List<String> commands = new ArrayList<>();
+        private long time = -1;
+
+        Turn(int number) {
+            this.number = number;
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        public List<String> getCommands() {
+            return commands;
+        }
+
+        /**
+         * @return time of getCommands in the game, in microseconds
+         */
+        public long getTime() {
+            return time;
+        }
+    }
+
+    /**
+     * outcome of the replay of one turn
+     */
+    static class TurnResult {
+        private final Turn turn;
+        private final List<String> commands;
+        private final long time;
+
+        TurnResult(Turn turn, List<String> commands, long time) {
+            this.turn = turn;
+            this.commands = commands;
+            this.time = time;
+        }
+
+        public Turn getTurn() {
+            return turn;
+        }
+
+        public List<String> getCommands() {
+            return commands;
+        }
+
+        /**
+         * @return time of getCommands in the replay, in nanoseconds
+         */
+        public long getTime() {
+            return time;
+        }
+
+        public boolean matches() {
+            return commands.equals(turn.getCommands());
+        }
+    }
+
+    private Player.Planner planner = Player.Planner.EVOLUTION;
+    private boolean reusePlans = true;
+    private boolean predictShips = false;
+    private int searchHorizon = 0;
+    private boolean assignBarrels = false;
+    private boolean openingBook = false;
+    private final List<Turn> turns = new ArrayList<>();
+
+    /**
+     * read the complete turns of a trace, a turn cut by the end of the trace or by records dropped by TraceWriter
+     * is left out
+     */
+    public static TraceReplay read(Reader reader) throws IOException {
+        TraceReplay replay = new TraceReplay();
+        BufferedReader lines = new BufferedReader(reader);
+        Turn turn = null;
+        String line;
+        while ((line = lines.readLine()) != null) {
+            String[] fields = line.trim().split(" ");
+            switch (fields[0]) {
+                case "config":
+                    // the turn budget is not replayed
+                    replay.planner = Player.Planner.valueOf(fields[1]);
+                    replay.reusePlans = Boolean.parseBoolean(fields[3]);
+                    replay.predictShips = Boolean.parseBoolean(fields[4]);
+                    // the switches added later are missing from older traces
+                    if (fields.length > 5) {
+                        replay.searchHorizon = Integer.parseInt(fields[5]);
+                    }
+                    if (fields.length > 6) {
+                        replay.assignBarrels = Boolean.parseBoolean(fields[6]);
+                    }
+                    if (fields.length > 7) {
+                        replay.openingBook = Boolean.parseBoolean(fields[7]);
+                    }
+                    break;
+                case "turn":
+                    turn = new Turn(Integer.parseInt(fields[1]));
+                    break;
+                case "in":
+                    if (turn != null) {
+                        turn.input.append(line, line.indexOf("in ") + 3, line.length()).append('\n');
+                    }
+                    break;
+                case "cooldown":
+                    if (turn != null) {
+                        turn.cooldowns.add(new int[]{Integer.parseInt(fields[1]), Integer.parseInt(fields[2]), Integer.parseInt(fields[3])});
+                    }
+                    break;
+                case "evaluations":
+                    if (turn != null) {
+                        turn.evaluations = Integer.parseInt(fields[1]);
+                    }
+                    break;
+                case "out":
+                    if (turn != null) {
+                        turn.commands.add(line.substring(line.indexOf("out ") + 4));
+                    }
+                    break;
+                case "time":
+                    if (turn != null) {
+                        turn.time = Long.parseLong(fields[1]);
+                        replay.turns.add(turn);
+                        turn = null;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return replay;
+    }
+
+    public List<Turn> getTurns() {
+        return turns;
+    }
+
+    /**
+     * @return a bot configured like the traced one, without turn budget
+     */
+    public Player createBot() {
+        Player player = new Player();
+        player.setPlanner(planner);
+        player.setReusePlans(reusePlans);
+        player.setPredictShips(predictShips);
+        player.setSearchHorizon(searchHorizon);
+        player.setAssignBarrels(assignBarrels);
+        player.setOpeningBook(openingBook);
+        return player;
+    }
+
+    /**
+     * replay the turns in order on a new bot
+     */
+    public List<TurnResult> replay() {
+        Player player = createBot();
+        List<TurnResult> results = new ArrayList<>();
+        for (Turn turn : turns) {
+            InputReader in = new InputReader(new ByteArrayInputStream(turn.input.toString().getBytes(StandardCharsets.US_ASCII)), false);
+            player.readTurn(in);
+            for (int[] cooldown : turn.cooldowns) {
+                player.setCooldowns(cooldown[0], cooldown[1], cooldown[2]);
+            }
+            if (planner == Player.Planner.EVOLUTION) {
+                player.setMaxEvaluations(turn.evaluations);
+            }
+            List<String> commands = player.getCommands();
+            results.add(new TurnResult(turn, commands, player.getLastTurnTime()));
+        }
+        return results;
+    }
+
+    /**
+     * @return number of turns whose commands differ from the trace
+     */
+    public static int report(String name, List<TurnResult> results) {
+        int mismatches = 0;
+        long[] times = new long[results.size()];
+        long total = 0;
+        long traced = 0;
+        for (int i = 0; i < results.size(); i++) {
+            TurnResult result = results.get(i);
+            if (!result.matches()) {
+                mismatches++;
+                System.out.printf("%s turn %d: traced %s, replayed %s%n", name, result.getTurn().getNumber(),
+                        result.getTurn().getCommands(), result.getCommands());
+            }
+            times[i] = result.getTime();
+            total += result.getTime();
+            traced += result.getTurn().getTime() * 1000;
+        }
+        Arrays.sort(times);
+        int nbTurns = times.length;
+        System.out.printf("%s: turns %d, mismatches %d", name, nbTurns, mismatches);
+        if (nbTurns > 0) {
+            System.out.printf(", replay avg %.2f ms, p99 %.2f ms, max %.2f ms, traced avg %.2f ms", total / 1e6 / nbTurns,
+                    times[Math.min(nbTurns - 1, (int) Math.ceil(0.99 * nbTurns) - 1)] / 1e6, times[nbTurns - 1] / 1e6,
+                    traced / 1e6 / nbTurns);
+        }
+        System.out.println();
+        return mismatches;
+    }
+
+    public static void main(String args[]) throws IOException {
+        int mismatches = 0;
+        for (String name : args) {
+            TraceReplay replay;
+            try (Reader reader = new InputStreamReader(new FileInputStream(name), StandardCharsets.US_ASCII)) {
+                replay = read(reader);
+            }
+            mismatches += report(name, replay.replay());
+        }
+        System.exit(mismatches == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,102 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.*;
+
+/**
+ * Measures the effect of Player.warmUp on the first turns of a game, which only shows in a fresh JVM: each game is
+ * played in a new JVM, once with cold bots and once with bots warming up on their first turn, with the turn budget of
+ * main. Reports for each of the first turns the time of getCommands, and for the EVOLUTION planner its rollouts.
+ * Run with: java WarmUpBenchmark [games] [warm-up budget in ms] [planner]
+ */
+public class WarmUpBenchmark {
+
+    private static final int TURNS = 10;
+
+    /**
+     * play one game in this JVM and print the time and rollouts of the first turns of player 0 on one line
+     */
+    static void playGame(long seed, long warmUpBudget, Player.Planner planner) {
+        LocalReferee referee = new LocalReferee(seed);
+        Player[] bots = new Player[2];
+        for (int i = 0; i < 2; i++) {
+            bots[i] = MatchRunner.createBot(planner, Player.TURN_BUDGET);
+            bots[i].setWarmUpBudget(warmUpBudget);
+        }
+        StringBuilder line = new StringBuilder();
+        for (int turn = 0; turn < TURNS; turn++) {
+            referee.prepare();
+            for (int playerIdx = 0; playerIdx < 2; playerIdx++) {
+                MatchRunner.feed(referee, playerIdx, bots[playerIdx]);
+                long start = System.nanoTime();
+                List<String> commands = bots[playerIdx].getCommands();
+                long time = System.nanoTime() - start;
+                if (playerIdx == 0) {
+                    line.append(time).append(' ').append(bots[0].getLastEvaluations()).append(' ');
+                }
+                referee.handlePlayerOutput(playerIdx, commands);
+            }
+            if (referee.updateGame()) {
+                break;
+            }
+        }
+        System.out.println(line.toString().trim());
+    }
+
+    /**
+     * @return time and rollouts of each first turn, in the format of playGame
+     */
+    static long[] playInNewJvm(long seed, long warmUpBudget, Player.Planner planner) throws IOException, InterruptedException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                WarmUpBenchmark.class.getName(), "--game", Long.toString(seed), Long.toString(warmUpBudget), planner.name())
+                .redirectErrorStream(true).start();
+        String output;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            output = reader.readLine();
+        }
+        if (process.waitFor() != 0 || output == null) {
+            throw new IllegalStateException("game " + seed + " failed: " + output);
+        }
+        String[] fields = output.split(" ");
+        long[] values = new long[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            values[i] = Long.parseLong(fields[i]);
+        }
+        return values;
+    }
+
+    public static void main(String args[]) throws IOException, InterruptedException {
+        if (args.length > 0 && args[0].equals("--game")) {
+            playGame(Long.parseLong(args[1]), Long.parseLong(args[2]), Player.Planner.valueOf(args[3]));
+            return;
+        }
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        long warmUpBudget = args.length > 1 ? Long.parseLong(args[1]) * 1000000L : Player.WARM_UP_BUDGET;
+        Player.Planner planner = args.length > 2 ? Player.Planner.valueOf(args[2]) : Player.Planner.EVOLUTION;
+        for (long budget : new long[]{0, warmUpBudget}) {
+            long[] time = new long[TURNS];
+            long[] maxTime = new long[TURNS];
+            long[] evaluations = new long[TURNS];
+            int[] count = new int[TURNS];
+            for (int seed = 0; seed < games; seed++) {
+                long[] values = playInNewJvm(seed, budget, planner);
+                for (int turn = 0; 2 * turn < values.length; turn++) {
+                    time[turn] += values[2 * turn];
+                    maxTime[turn] = Math.max(maxTime[turn], values[2 * turn]);
+                    evaluations[turn] += values[2 * turn + 1];
+                    count[turn]++;
+                }
+            }
+            System.out.printf("%s, warm-up %d ms, games %d%n", planner, budget / 1000000, games);
+            for (int turn = 0; turn < TURNS && count[turn] > 0; turn++) {
+                System.out.printf("turn %2d: avg %7.2f ms, max %7.2f ms", turn + 1, time[turn] / 1e6 / count[turn], maxTime[turn] / 1e6);
+                if (planner == Player.Planner.EVOLUTION) {
+                    System.out.printf(", rollouts %7.0f", (double) evaluations[turn] / count[turn]);
+                }
+                System.out.println();
+            }
+        }
+    }
+}